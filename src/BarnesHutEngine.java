@@ -0,0 +1,13 @@
+// The reference force engine: the octree is traversed once for every body, octants that are far
+// enough away from the body are approximated by their mass center (see Octree.gravitationalForce).
+public class BarnesHutEngine implements ForceEngine {
+
+    @Override
+    public void calculateForces(Octree octree) {
+        if (Simulation.PARALLELISM > 1) {
+            octree.calculateForce(octree, Simulation.pool());
+        } else {
+            octree.calculateForce(octree);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+// Measurements of the hot paths of the simulation, without drawing anything.
+// Run with the name of a benchmark as first argument, e.g. "java Benchmark allocation".
+// (there is no JMH in this project, the measurements follow its approach: warm up first,
+// then report the average over many operations)
+public class Benchmark {
+
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) {
+        String name = args.length > 0 ? args[0] : "allocation";
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : Simulation.NUMBER_OF_BODIES;
+
+        switch (name) {
+            case "allocation":
+                allocation(n);
+                break;
+            case "linear":
+                linear(n);
+                break;
+            case "theta":
+                theta(n);
+                break;
+            case "engines":
+                engines(n);
+                break;
+            case "crossover":
+                crossover();
+                break;
+            case "leaves":
+                leaves(n);
+                break;
+            case "rebuild":
+                rebuild(n);
+                break;
+            case "lists":
+                lists(n);
+                break;
+            default:
+                System.out.println("unknown benchmark: " + name);
+        }
+    }
+
+    // Reports the bytes allocated per body when calculating the forces of all bodies
+    // on a single thread (like gc.alloc.rate.norm of JMH).
+    private static void allocation(int n) {
+        BodyStore store = new BodyStore(n);
+        Octree octree = createOctree(store, n);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            octree.calculateForce(octree);
+        }
+
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            octree.calculateForce(octree);
+        }
+        long duration = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+        System.out.println("bodies: " + n);
+        System.out.println("calculating forces: " + duration / ROUNDS / 1000 + " us/op");
+        System.out.println("gc.alloc.rate.norm: " + (double) bytes / ROUNDS / n + " B/body");
+    }
+
+    // Compares building the octree and calculating the forces with Octree and LinearOctree,
+    // and reports the largest relative difference of the forces of both.
+    private static void linear(int n) {
+        BodyStore store = new BodyStore(n);
+        Octree octree = createOctree(store, n);
+        LinearOctree linearOctree = new LinearOctree(octree.getOctant(), store);
+        linearOctree.addAllBodies();
+
+        double[][] forces = new double[3][n];
+        octree.calculateForce(octree);
+        for (int i = 0; i < n; i++) {
+            forces[0][i] = store.fx[i];
+            forces[1][i] = store.fy[i];
+            forces[2][i] = store.fz[i];
+        }
+
+        long octreeBuild = 0;
+        long octreeForces = 0;
+        long linearBuild = 0;
+        long linearForces = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            Octree newOctree = new Octree(octree.getOctant());
+            newOctree.insertAllBodies(octree);
+            newOctree.aggregate();
+            long built = System.nanoTime();
+            newOctree.calculateForce(newOctree);
+            long calculated = System.nanoTime();
+            linearOctree.rebuild();
+            long linearBuilt = System.nanoTime();
+            linearOctree.calculateForces();
+            long linearCalculated = System.nanoTime();
+            if (round >= WARMUP_ROUNDS) {
+                octreeBuild += built - start;
+                octreeForces += calculated - built;
+                linearBuild += linearBuilt - calculated;
+                linearForces += linearCalculated - linearBuilt;
+            }
+        }
+
+        double error = 0;
+        for (int i = 0; i < n; i++) {
+            double dx = store.fx[i] - forces[0][i];
+            double dy = store.fy[i] - forces[1][i];
+            double dz = store.fz[i] - forces[2][i];
+            double length = Math.sqrt(forces[0][i] * forces[0][i] + forces[1][i] * forces[1][i] + forces[2][i] * forces[2][i]);
+            if (length > 0) { // bodies outside of the root octant have no force
+                error = Math.max(error, Math.sqrt(dx * dx + dy * dy + dz * dz) / length);
+            }
+        }
+
+        System.out.println("bodies: " + n + ", linear octree nodes: " + linearOctree.nodeCount());
+        System.out.println("Octree:       building " + octreeBuild / ROUNDS / 1000 + " us/op, forces " + octreeForces / ROUNDS / 1000 + " us/op");
+        System.out.println("LinearOctree: building " + linearBuild / ROUNDS / 1000 + " us/op, forces " + linearForces / ROUNDS / 1000 + " us/op");
+        System.out.println("largest relative force difference: " + error);
+    }
+
+    // Reports time and error of the forces for several opening angles, with and without quadrupole
+    // moments. The error is relative to the forces of a direct summation over all pairs of bodies.
+    private static void theta(int n) {
+        BodyStore store = new BodyStore(n);
+        Octree octree = createOctree(store, n);
+        double[][] exact = exactForces(store, octree);
+
+        System.out.println("bodies: " + n);
+        System.out.println("theta;quadrupole;forces in us/op;mean error;max error");
+        for (boolean quadrupole : new boolean[]{false, true}) {
+            Simulation.QUADRUPOLE = quadrupole;
+            octree.aggregate();
+            for (double theta : new double[]{0.3, 0.5, 0.7, 1.0, 1.5}) {
+                Simulation.THETA = theta;
+                long duration = 0;
+                for (int round = 0; round < WARMUP_ROUNDS / 4 + ROUNDS / 4; round++) {
+                    long start = System.nanoTime();
+                    octree.calculateForce(octree);
+                    if (round >= WARMUP_ROUNDS / 4) {
+                        duration += System.nanoTime() - start;
+                    }
+                }
+                double[] error = relativeError(store, exact);
+                System.out.println(theta + ";" + quadrupole + ";" + duration / (ROUNDS / 4) / 1000 + ";" + error[0] + ";" + error[1]);
+            }
+        }
+    }
+
+    // Reports time and error of the forces of every force engine, relative to a direct summation.
+    private static void engines(int n) {
+        BodyStore store = new BodyStore(n);
+        Octree octree = createOctree(store, n);
+        double[][] exact = exactForces(store, octree);
+
+        System.out.println("bodies: " + n + ", threads: " + Simulation.PARALLELISM);
+        System.out.println("engine;forces in us/op;mean error;max error");
+        for (ForceEngine engine : new ForceEngine[]{new BarnesHutEngine(), new DualTreeEngine(), new InteractionListEngine()}) {
+            long duration = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                long start = System.nanoTime();
+                engine.calculateForces(octree);
+                if (round >= WARMUP_ROUNDS) {
+                    duration += System.nanoTime() - start;
+                }
+            }
+            double[] error = relativeError(store, exact);
+            System.out.println(engine.getClass().getSimpleName() + ";" + duration / ROUNDS / 1000 + ";" + error[0] + ";" + error[1]);
+        }
+    }
+
+    // Compares the Barnes-Hut engine (including building the octree) with the direct summation on the
+    // bodies of the store (which needs no octree, see Simulation) for growing numbers of bodies, to find
+    // out below which number the direct summation is faster.
+    private static void crossover() {
+        System.out.println("threads: " + Simulation.PARALLELISM);
+        System.out.println("bodies;building tree in us/op;barnes-hut in us/op;direct summation in us/op");
+        ForceEngine barnesHut = new BarnesHutEngine();
+        DirectSummationEngine direct = new DirectSummationEngine();
+        for (int n = 250; n <= 16000; n *= 2) {
+            BodyStore store = new BodyStore(n);
+            Octree octree = createOctree(store, n);
+            long build = 0;
+            long barnesHutDuration = 0;
+            long directDuration = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                long start = System.nanoTime();
+                Octree newOctree = new Octree(octree.getOctant());
+                newOctree.insertAllBodies(octree);
+                newOctree.aggregate();
+                long built = System.nanoTime();
+                barnesHut.calculateForces(newOctree);
+                long calculated = System.nanoTime();
+                direct.calculateForces(store);
+                if (round >= WARMUP_ROUNDS) {
+                    build += built - start;
+                    barnesHutDuration += calculated - built;
+                    directDuration += System.nanoTime() - calculated;
+                }
+            }
+            System.out.println(n + ";" + build / ROUNDS / 1000 + ";" + barnesHutDuration / ROUNDS / 1000 + ";" + directDuration / ROUNDS / 1000);
+        }
+    }
+
+    // Simulates STEPS iterations with the Barnes-Hut engine and with interaction lists for several margins
+    // and reports the time of the force calculations, how often the lists were made, and the error of
+    // the forces in the last iteration relative to a direct summation.
+    private static void lists(int n) {
+        int steps = 100;
+        System.out.println("bodies: " + n + ", threads: " + Simulation.PARALLELISM + ", iterations: " + steps);
+        System.out.println("engine;margin in AU;forces in us/op;lists made;mean error;max error");
+        double[] margins = {0, 0.001, 0.002, 0.005, 0.01};
+        for (int run = -1; run < margins.length; run++) {
+            ForceEngine engine = run < 0 ? new BarnesHutEngine() : new InteractionListEngine();
+            if (run >= 0) {
+                Simulation.LIST_MARGIN = margins[run] * Simulation.AU;
+            }
+            BodyStore store = new BodyStore(n);
+            Octree octree = createOctree(store, n);
+            long lists = Metrics.METRICS.interactionLists.sum();
+            long duration = 0;
+            for (int step = 0; step < steps; step++) {
+                long start = System.nanoTime();
+                engine.calculateForces(octree);
+                duration += System.nanoTime() - start;
+                if (step < steps - 1) {
+                    octree.moveBodies();
+                    Octree newOctree = new Octree(octree.getOctant());
+                    newOctree.insertAllBodies(octree);
+                    newOctree.aggregate();
+                    octree = newOctree;
+                }
+            }
+            double[][] forces = {store.fx.clone(), store.fy.clone(), store.fz.clone()};
+            double[][] exact = exactForces(store, octree);
+            System.arraycopy(forces[0], 0, store.fx, 0, n);
+            System.arraycopy(forces[1], 0, store.fy, 0, n);
+            System.arraycopy(forces[2], 0, store.fz, 0, n);
+            double[] error = relativeError(store, exact);
+            System.out.println(engine.getClass().getSimpleName() + ";" + (run < 0 ? "-" : margins[run]) + ";"
+                    + duration / steps / 1000 + ";" + (Metrics.METRICS.interactionLists.sum() - lists) + ";" + error[0] + ";" + error[1]);
+        }
+    }
+
+    // Reports time and bytes allocated per rebuild of the octree, with new nodes for every octree and with
+    // the nodes reused from an arena (Simulation.rebuild).
+    private static void rebuild(int n) {
+        BodyStore store = new BodyStore(n);
+        Octree octree = createOctree(store, n);
+        Octant octant = octree.getOctant();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        System.out.println("bodies: " + n + ", leaf capacity: " + Simulation.LEAF_CAPACITY);
+        System.out.println("octree;building tree in us/op;allocated bytes/op");
+        for (boolean arena : new boolean[]{false, true}) {
+            long duration = 0;
+            long bytes = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                long allocated = threads.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                if (arena) {
+                    octree = Simulation.rebuild(octree, octant);
+                } else {
+                    Octree newOctree = new Octree(octant);
+                    newOctree.insertAllBodies(octree);
+                    newOctree.aggregate();
+                    octree = newOctree;
+                }
+                if (round >= WARMUP_ROUNDS) {
+                    duration += System.nanoTime() - start;
+                    bytes += threads.getThreadAllocatedBytes(thread) - allocated;
+                }
+            }
+            System.out.println((arena ? "arena" : "new") + ";" + duration / ROUNDS / 1000 + ";" + bytes / ROUNDS);
+        }
+    }
+
+    // Reports building time, shape, force time and error of Octree and LinearOctree for several leaf
+    // capacities (Simulation.LEAF_CAPACITY). The error is relative to a direct summation.
+    private static void leaves(int n) {
+        BodyStore store = new BodyStore(n);
+        Octree octree = createOctree(store, n);
+        double[][] exact = exactForces(store, octree);
+
+        System.out.println("bodies: " + n + ", threads: " + Simulation.PARALLELISM);
+        System.out.println("leaf capacity;depth;leaves;building tree in us/op;forces in us/op;nodes/body;mean error;max error;"
+                + "linear nodes;linear building in us/op;linear forces in us/op");
+        for (int capacity : new int[]{1, 2, 4, 8, 16, 32, 64}) {
+            Simulation.LEAF_CAPACITY = capacity;
+            Octree newOctree = null;
+            long build = 0;
+            long forces = 0;
+            long nodesVisited = 0;
+            for (int round = 0; round < WARMUP_ROUNDS / 4 + ROUNDS / 4; round++) {
+                long start = System.nanoTime();
+                newOctree = new Octree(octree.getOctant());
+                newOctree.insertAllBodies(octree);
+                newOctree.aggregate();
+                long built = System.nanoTime();
+                long visited = Metrics.METRICS.nodesVisited.sum();
+                newOctree.calculateForce(newOctree);
+                if (round >= WARMUP_ROUNDS / 4) {
+                    build += built - start;
+                    forces += System.nanoTime() - built;
+                    nodesVisited += Metrics.METRICS.nodesVisited.sum() - visited;
+                }
+            }
+            double[] error = relativeError(store, exact);
+
+            LinearOctree linearOctree = new LinearOctree(octree.getOctant(), store);
+            linearOctree.addAllBodies();
+            long linearBuild = 0;
+            long linearForces = 0;
+            for (int round = 0; round < WARMUP_ROUNDS / 4 + ROUNDS / 4; round++) {
+                long start = System.nanoTime();
+                linearOctree.rebuild();
+                long built = System.nanoTime();
+                linearOctree.calculateForces();
+                if (round >= WARMUP_ROUNDS / 4) {
+                    linearBuild += built - start;
+                    linearForces += System.nanoTime() - built;
+                }
+            }
+
+            System.out.println(capacity + ";" + newOctree.depth() + ";" + newOctree.leafCount() + ";"
+                    + build / (ROUNDS / 4) / 1000 + ";" + forces / (ROUNDS / 4) / 1000 + ";"
+                    + String.format("%.1f", (double) nodesVisited / (ROUNDS / 4) / n) + ";" + error[0] + ";" + error[1] + ";"
+                    + linearOctree.nodeCount() + ";" + linearBuild / (ROUNDS / 4) / 1000 + ";" + linearForces / (ROUNDS / 4) / 1000);
+        }
+    }
+
+    // Returns the forces on all bodies of octree calculated by the DirectSummationEngine.
+    static double[][] exactForces(BodyStore store, Octree octree) {
+        new DirectSummationEngine().calculateForces(octree);
+        return new double[][]{store.fx.clone(), store.fy.clone(), store.fz.clone()};
+    }
+
+    // Returns the mean and the largest relative difference of the forces in the store to 'exact'.
+    static double[] relativeError(BodyStore store, double[][] exact) {
+        double sum = 0;
+        double max = 0;
+        int count = 0;
+        for (int i = 0; i < store.size(); i++) {
+            double dx = store.fx[i] - exact[0][i];
+            double dy = store.fy[i] - exact[1][i];
+            double dz = store.fz[i] - exact[2][i];
+            double length = Math.sqrt(exact[0][i] * exact[0][i] + exact[1][i] * exact[1][i] + exact[2][i] * exact[2][i]);
+            if (length > 0) { // bodies outside of the root octant have no force
+                double error = Math.sqrt(dx * dx + dy * dy + dz * dz) / length;
+                sum += error;
+                max = Math.max(max, error);
+                count++;
+            }
+        }
+        return new double[]{sum / count, max};
+    }
+
+    // Creates n bodies in two gaussian clusters the same way as Simulation does
+    // and returns an aggregated octree containing them.
+    static Octree createOctree(BodyStore store, int n) {
+        Octree octree = new Octree(new Octant(-Simulation.SECTION_SIZE / 2, -Simulation.SECTION_SIZE / 2,
+                -Simulation.SECTION_SIZE / 2, Simulation.SECTION_SIZE));
+        Random random = new Random(2022);
+
+        for (int i = 0; i < n; i++) {
+            double mass = Math.abs(random.nextGaussian()) * Simulation.SUN_MASS;
+            double spread = i < n / 2 ? 0.2 * Simulation.SECTION_SIZE / 4 : 0.2 * Simulation.SECTION_SIZE * 3 / 4;
+            double x = random.nextGaussian() * spread;
+            double y = random.nextGaussian() * spread;
+            double z = Simulation.DRAW_3D ? random.nextGaussian() * spread : 0;
+            octree.insert(store.add(mass, x, y, z,
+                    random.nextGaussian() * 5e7, random.nextGaussian() * 5e7, Simulation.DRAW_3D ? random.nextGaussian() * 5e7 : 0));
+        }
+        octree.aggregate();
+        return octree;
+    }
+}
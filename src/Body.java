@@ -1,100 +1,167 @@
-import codedraw.CodeDraw;
-
 // This class represents celestial bodies like stars, planets, asteroids, etc..
 public class Body {
 
-    private final double mass;
-    private Vector3 massCenter; // position of the mass center.
-    private Vector3 currentMovement;
-    private Vector3 gravitationalForce; // force exerted on this body
+    private final BodyStore store; // holds mass, position, movement and force of this body
+    private final int index;
 
-    public Body(double mass, Vector3 massCenter, Vector3 currentMovement) {
-        this.mass = mass;
-        this.massCenter = massCenter;
-        this.currentMovement = currentMovement;
-        this.gravitationalForce = new Vector3();
+    public Body(BodyStore store, int index) {
+        this.store = store;
+        this.index = index;
     }
 
     public void setGravitationalForce(Vector3 gravitationalForce) {
-        this.gravitationalForce = gravitationalForce;
+        store.fx[index] = gravitationalForce.x;
+        store.fy[index] = gravitationalForce.y;
+        store.fz[index] = gravitationalForce.z;
+    }
+
+    public void setGravitationalForce(double x, double y, double z) {
+        store.fx[index] = x;
+        store.fy[index] = y;
+        store.fz[index] = z;
     }
 
     public Vector3 getGravitationalForce() {
-        return this.gravitationalForce;
+        return new Vector3(store.fx[index], store.fy[index], store.fz[index]);
+    }
+
+    // adds [x,y,z] to the force exerted on this body
+    public void addGravitationalForce(double x, double y, double z) {
+        store.fx[index] += x;
+        store.fy[index] += y;
+        store.fz[index] += z;
+    }
+
+    // sets the force exerted on this body to zero
+    public void resetGravitationalForce() {
+        store.fx[index] = 0;
+        store.fy[index] = 0;
+        store.fz[index] = 0;
     }
 
     public double distanceTo(Body b) {
-        return this.massCenter.distanceTo(b.massCenter);
+        double dx = store.x[index] - b.store.x[b.index];
+        double dy = store.y[index] - b.store.y[b.index];
+        double dz = store.z[index] - b.store.z[b.index];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
     }
 
-    // Moves this body to a new position, according to the specified force vector 'force' exerted
-    // on it, and updates the current movement accordingly.
+    // Moves this body to a new position, according to the force exerted on it
+    // (see getGravitationalForce), and updates the current movement accordingly.
     // (Movement depends on the mass of this body, its current movement and the exerted force.)
     // Hint: see simulation loop in Simulation.java to find out how this is done.
-    public void move(Vector3 force) {
-        Vector3 newPosition = this.massCenter.plus(force.times(1 / this.mass)).plus(this.currentMovement);
-
-        Vector3 newMovement = newPosition.minus(this.massCenter);
-
-        this.massCenter = newPosition;
-        this.currentMovement = newMovement;
+    public void move() {
+        store.move(index);
     }
 
     // Returns the approximate radius of this body.
     // (It is assumed that the radius r is related to the mass m of the body by r = m ^ 0.5,
     // where m and r measured in solar units.)
+    // (calculated when the mass changes)
     public double radius() {
-        return Simulation.SUN_RADIUS * (Math.pow(this.mass / Simulation.SUN_MASS, 0.5));
+        return store.radius[index];
     }
 
-    // Returns a new body that is formed by the collision of this body and 'b'. The impulse
-    // of the returned body is the sum of the impulses of 'this' and 'b'.
-    public Body merge(Body b) {
+    // Returns the index of the color of this body in the palette of SpaceDraw.
+    public int color() {
+        return store.color[index];
+    }
 
-        return new Body(this.mass + b.mass,
-                this.massCenter.times(this.mass).plus(b.massCenter.times(b.mass)).times(1 / (this.mass + b.mass)),
-                this.currentMovement.times(this.mass).plus(b.currentMovement.times(b.mass)).times(1 / (this.mass + b.mass)));
+    // Merges 'b' into this body, which is then the body formed by the collision of both. The impulse
+    // of the merged body is the sum of the impulses of 'this' and 'b'. 'b' is removed from the store.
+    // Returns this body.
+    public Body merge(Body b) {
+        double mass = store.mass[index];
+        double bMass = b.store.mass[b.index];
+        double factor = 1 / (mass + bMass);
+
+        double x = (store.x[index] * mass + b.store.x[b.index] * bMass) * factor;
+        double y = (store.y[index] * mass + b.store.y[b.index] * bMass) * factor;
+        double z = (store.z[index] * mass + b.store.z[b.index] * bMass) * factor;
+        double vx = (store.vx[index] * mass + b.store.vx[b.index] * bMass) * factor;
+        double vy = (store.vy[index] * mass + b.store.vy[b.index] * bMass) * factor;
+        double vz = (store.vz[index] * mass + b.store.vz[b.index] * bMass) * factor;
+
+        b.store.remove(b.index);
+
+        store.mass[index] = mass + bMass;
+        store.x[index] = x;
+        store.y[index] = y;
+        store.z[index] = z;
+        store.vx[index] = vx;
+        store.vy[index] = vy;
+        store.vz[index] = vz;
+        store.massChanged(index);
+        resetGravitationalForce();
+        return this;
     }
 
-    // Returns a vector representing the gravitational force exerted by 'b' on this body.
+    // Adds the gravitational force exerted by 'b' on this body to 'forceSum'.
     // The gravitational Force F is calculated by F = G*(m1*m2)/(r*r), with m1 and m2 being the
     // masses of the objects interacting, r being the distance between the centers of the masses
     // and G being the gravitational constant.
-    public void gravitationalForce(Body b) {
+    public void gravitationalForce(Body b, Vector3 forceSum) {
 
-        Vector3 direction = b.massCenter.minus(this.massCenter);
-        double distance = direction.length();
-        direction.normalize();
-        double force = Simulation.G * (this.mass * b.mass) / (distance * distance);
-        direction.times(force);
+        double dx = b.store.x[b.index] - store.x[index];
+        double dy = b.store.y[b.index] - store.y[index];
+        double dz = b.store.z[b.index] - store.z[index];
+        double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        double force = Simulation.G * (this.mass() * b.mass()) / (distance * distance);
+        forceSum.addScaled(dx, dy, dz, force / distance);
 
     }
 
-    // Draws the body to the specified canvas as a filled circle.
-    // The radius of the circle corresponds to the radius of the body
-    // (use a conversion of the real scale to the scale of the canvas as
-    // in 'Simulation.java').
-    // Hint: call the method 'drawAsFilledCircle' implemented in 'Vector3'.
-    public void draw(CodeDraw cd) {
-        cd.setColor(SpaceDraw.massToColor(this.mass));
-        this.massCenter.drawAsFilledCircle(cd, this.radius());
-    }
-
     // Returns a string with the information about this body including
     // mass, position (mass center) and current movement. Example:
     // "5.972E24 kg, position: [1.48E11,0.0,0.0] m, movement: [0.0,29290.0,0.0] m/s."
     public String toString() {
-        return "mass: " + this.mass + " kg, position: " + this.massCenter.toString() + " m, movement: " + this.currentMovement.toString() + " m/s";
+        return "mass: " + this.mass() + " kg, position: " + this.massCenter().toString() + " m, movement: " + this.currentMovement().toString() + " m/s";
     }
 
     // returns the mass of this body
     public double mass() {
-        return this.mass;
+        return store.mass[index];
     }
 
     // returns the position of this body
     public Vector3 massCenter() {
-        return this.massCenter;
+        return new Vector3(store.x[index], store.y[index], store.z[index]);
     }
-}
 
+    // returns the current movement of this body
+    public Vector3 currentMovement() {
+        return new Vector3(store.vx[index], store.vy[index], store.vz[index]);
+    }
+
+    // returns the coordinates of the position of this body
+    public double x() {
+        return store.x[index];
+    }
+
+    public double y() {
+        return store.y[index];
+    }
+
+    public double z() {
+        return store.z[index];
+    }
+
+    // two bodies are equal if they are views on the same slot of the same store
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Body)) return false;
+        Body b = (Body) o;
+        return store == b.store && index == b.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return index;
+    }
+
+    // returns the index of this body in its store
+    public int index() {
+        return index;
+    }
+}
@@ -0,0 +1,51 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Loads the bodies from a file instead of creating them: a checkpoint (see Checkpoint), or a text file
+// ending with ".csv" with one body per line "mass;x;y;z;vx;vy;vz" (kilograms, meters and meters per
+// second, lines starting with '#' are skipped). The number of bodies is the one of the file.
+public class BodyFile implements InitialConditions {
+
+    private final Path file;
+
+    public BodyFile(String file) {
+        this.file = Paths.get(file);
+    }
+
+    @Override
+    public BodyStore createBodies(int count) {
+        try {
+            if (file.toString().endsWith(".csv")) {
+                return readCsv();
+            }
+            return Checkpoint.read(file).getStore();
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot load bodies from " + file, e);
+        }
+    }
+
+    private BodyStore readCsv() throws IOException {
+        BodyStore store = new BodyStore(1024);
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] values = line.split(";");
+                if (values.length != 7) {
+                    throw new IOException("expected 7 values: " + line);
+                }
+                store.add(Double.parseDouble(values[0]), Double.parseDouble(values[1]), Double.parseDouble(values[2]),
+                        Double.parseDouble(values[3]), Double.parseDouble(values[4]), Double.parseDouble(values[5]),
+                        Double.parseDouble(values[6]));
+            }
+        }
+        return store;
+    }
+}
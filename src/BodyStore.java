@@ -0,0 +1,139 @@
+import java.util.Arrays;
+
+// This class stores the state of all bodies in primitive arrays (structure of arrays).
+// A 'Body' is only a view on one index of this store, so moving bodies and calculating
+// forces works directly on the arrays and does not allocate any objects.
+public class BodyStore {
+
+    double[] mass;
+    double[] x; // position of the mass center.
+    double[] y;
+    double[] z;
+    double[] vx; // current movement
+    double[] vy;
+    double[] vz;
+    double[] fx; // force exerted on the body
+    double[] fy;
+    double[] fz;
+    double[] radius; // depend on the mass only, they are updated when the mass changes
+    int[] color; // index in the palette of SpaceDraw
+
+    private int size;
+
+    public BodyStore(int capacity) {
+        mass = new double[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        vx = new double[capacity];
+        vy = new double[capacity];
+        vz = new double[capacity];
+        fx = new double[capacity];
+        fy = new double[capacity];
+        fz = new double[capacity];
+        radius = new double[capacity];
+        color = new int[capacity];
+        size = 0;
+    }
+
+    // adds a body with the specified mass, position and movement and returns the view on it.
+    public Body add(double mass, double x, double y, double z, double vx, double vy, double vz) {
+        if (size == this.mass.length) {
+            grow();
+        }
+        int index = size++;
+        this.mass[index] = mass;
+        this.x[index] = x;
+        this.y[index] = y;
+        this.z[index] = z;
+        this.vx[index] = vx;
+        this.vy[index] = vy;
+        this.vz[index] = vz;
+        massChanged(index);
+        return new Body(this, index);
+    }
+
+    // sets mass, position and movement of the body at index (without adding it, see addFilled)
+    void set(int index, double mass, double x, double y, double z, double vx, double vy, double vz) {
+        this.mass[index] = mass;
+        this.x[index] = x;
+        this.y[index] = y;
+        this.z[index] = z;
+        this.vx[index] = vx;
+        this.vy[index] = vy;
+        this.vz[index] = vz;
+    }
+
+    // adds the bodies in the next count slots, after mass, position and movement were written
+    // to the arrays directly (e.g. by Checkpoint.read or with set, the capacity must be large enough)
+    void addFilled(int count) {
+        for (int i = size; i < size + count; i++) {
+            massChanged(i);
+        }
+        size += count;
+    }
+
+    // removes the body at index, e.g. after it was merged into another one.
+    // (the slot is kept, a removed body has no mass)
+    public void remove(int index) {
+        mass[index] = 0;
+        fx[index] = 0;
+        fy[index] = 0;
+        fz[index] = 0;
+    }
+
+    // updates radius and color of the body at index after its mass was set
+    void massChanged(int index) {
+        radius[index] = SpaceDraw.massToRadius(mass[index]);
+        color[index] = SpaceDraw.massToColorIndex(mass[index]);
+    }
+
+    // moves the body at index according to the force exerted on it and updates its current movement.
+    // (see Body.move)
+    public void move(int index) {
+        double factor = 1 / mass[index];
+
+        double newX = x[index] + fx[index] * factor + vx[index];
+        double newY = y[index] + fy[index] * factor + vy[index];
+        double newZ = z[index] + fz[index] * factor + vz[index];
+
+        vx[index] = newX - x[index];
+        vy[index] = newY - y[index];
+        vz[index] = newZ - z[index];
+
+        x[index] = newX;
+        y[index] = newY;
+        z[index] = newZ;
+    }
+
+    // moves all bodies that were not removed (see move)
+    public void moveBodies() {
+        for (int i = 0; i < size; i++) {
+            if (mass[i] > 0) {
+                move(i);
+            }
+        }
+    }
+
+    // returns the number of slots in use, including removed bodies
+    public int size() {
+        return size;
+    }
+
+    // doubles the capacity of all arrays
+    private void grow() {
+        int capacity = Math.max(2 * mass.length, 16);
+        mass = Arrays.copyOf(mass, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        vz = Arrays.copyOf(vz, capacity);
+        fx = Arrays.copyOf(fx, capacity);
+        fy = Arrays.copyOf(fy, capacity);
+        fz = Arrays.copyOf(fz, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        color = Arrays.copyOf(color, capacity);
+    }
+}
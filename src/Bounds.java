@@ -0,0 +1,103 @@
+import java.util.concurrent.RecursiveTask;
+
+// The smallest and largest coordinates of the bodies of a store (removed bodies are left out), and the
+// number of bodies outside the section that is drawn. The store is searched in parallel by ranges,
+// the results of the ranges are combined (see Simulation.DYNAMIC_BOUNDS).
+public class Bounds {
+
+    // number of bodies searched by one task
+    private static final int BODIES_PER_TASK = 16384;
+
+    private double minX = Double.POSITIVE_INFINITY;
+    private double minY = Double.POSITIVE_INFINITY;
+    private double minZ = Double.POSITIVE_INFINITY;
+    private double maxX = Double.NEGATIVE_INFINITY;
+    private double maxY = Double.NEGATIVE_INFINITY;
+    private double maxZ = Double.NEGATIVE_INFINITY;
+    private int outside; // bodies outside of the section
+
+    // returns the bounds of all bodies of the store
+    public static Bounds of(BodyStore store) {
+        BoundsTask task = new BoundsTask(store, 0, store.size());
+        if (Simulation.PARALLELISM > 1) {
+            return Simulation.pool().invoke(task);
+        }
+        return task.search();
+    }
+
+    // returns the octant centered at the origin that contains all bodies: the section, doubled as often as necessary
+    public Octant rootOctant() {
+        double half = Simulation.SECTION_SIZE / 2;
+        while (!Double.isInfinite(half) && (minX < -half || minY < -half || minZ < -half || maxX >= half || maxY >= half || maxZ >= half)) {
+            half *= 2;
+        }
+        return new Octant(-half, -half, -half, 2 * half);
+    }
+
+    // returns the number of bodies outside of the section
+    public int getOutside() {
+        return outside;
+    }
+
+    private void add(double x, double y, double z) {
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+        double half = Simulation.SECTION_SIZE / 2;
+        if (x < -half || y < -half || z < -half || x >= half || y >= half || z >= half) {
+            outside++;
+        }
+    }
+
+    private void add(Bounds bounds) {
+        minX = Math.min(minX, bounds.minX);
+        minY = Math.min(minY, bounds.minY);
+        minZ = Math.min(minZ, bounds.minZ);
+        maxX = Math.max(maxX, bounds.maxX);
+        maxY = Math.max(maxY, bounds.maxY);
+        maxZ = Math.max(maxZ, bounds.maxZ);
+        outside += bounds.outside;
+    }
+
+    // searches the bodies in [start, end) of the store
+    private static class BoundsTask extends RecursiveTask<Bounds> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BodyStore store;
+        private final int start;
+        private final int end;
+
+        private BoundsTask(BodyStore store, int start, int end) {
+            this.store = store;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Bounds compute() {
+            if (end - start <= BODIES_PER_TASK) {
+                return search();
+            }
+            int middle = (start + end) >>> 1;
+            BoundsTask left = new BoundsTask(store, start, middle);
+            left.fork();
+            Bounds bounds = new BoundsTask(store, middle, end).compute();
+            bounds.add(left.join());
+            return bounds;
+        }
+
+        private Bounds search() {
+            Bounds bounds = new Bounds();
+            for (int i = start; i < end; i++) {
+                if (store.mass[i] > 0) {
+                    bounds.add(store.x[i], store.y[i], store.z[i]);
+                }
+            }
+            return bounds;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// The state of the simulation (iteration and all bodies) in a binary file, so a run can be continued
+// later (see Simulation.CHECKPOINT_INTERVAL and Simulation.RESTART). The file consists of a header
+// (magic number, version, iteration, number of bodies) followed by the arrays mass, x, y, z, vx, vy
+// and vz of the BodyStore, little endian. The arrays are copied in bulk through memory mapped
+// buffers, nothing is serialized per body.
+public class Checkpoint {
+
+    private static final int MAGIC = 0x45503243; // "EP2C"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+
+    private final long iteration;
+    private final BodyStore store;
+
+    private Checkpoint(long iteration, BodyStore store) {
+        this.iteration = iteration;
+        this.store = store;
+    }
+
+    public long getIteration() {
+        return iteration;
+    }
+
+    public BodyStore getStore() {
+        return store;
+    }
+
+    // writes all bodies of the store (including removed ones, they have no mass) and the iteration to file.
+    // They are written to a temporary file next to it first, which replaces the file once it is on the
+    // disk, so the previous checkpoint survives a crash while writing.
+    public static void write(Path file, long iteration, BodyStore store) throws IOException {
+        int count = store.size();
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(iteration).putInt(count);
+            header.force();
+
+            long position = HEADER_SIZE;
+            for (double[] array : arrays(store)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, 8L * count);
+                buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(array, 0, count);
+                buffer.force();
+                position += 8L * count;
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // reads a checkpoint written by 'write'
+    public static Checkpoint read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a checkpoint");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has unsupported version " + version);
+            }
+            long iteration = header.getLong();
+            int count = header.getInt();
+            if (channel.size() != HEADER_SIZE + 7 * 8L * count) {
+                throw new IOException(file + " is truncated");
+            }
+
+            BodyStore store = new BodyStore(count);
+            long position = HEADER_SIZE;
+            for (double[] array : arrays(store)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * count);
+                buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(array, 0, count);
+                position += 8L * count;
+            }
+            store.addFilled(count);
+            return new Checkpoint(iteration, store);
+        }
+    }
+
+    // the arrays of the store in the order of the file
+    private static double[][] arrays(BodyStore store) {
+        return new double[][]{store.mass, store.x, store.y, store.z, store.vx, store.vy, store.vz};
+    }
+}
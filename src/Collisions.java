@@ -0,0 +1,244 @@
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+// Merges bodies that overlap, i.e. the distance of their centers is less than the sum of their radii
+// (see Simulation.MERGE_BODIES). The bodies are sorted into a uniform grid whose cells are as large as
+// the largest body, so overlapping bodies are in the same or in neighbouring cells. The cells are
+// hashed into a table with at least two buckets per body, so sorting and looking up takes linear time.
+// The pairs of overlapping bodies are searched in parallel, then groups of overlapping bodies (also
+// chains of them) are found with union-find and merged into the body with the smallest index of the
+// group, in ascending order of index. So the result does not depend on the octree or the threads.
+public class Collisions {
+
+    // number of bodies whose pairs are searched by one task
+    private static final int BODIES_PER_TASK = 4096;
+
+    private BodyStore store;
+    private double maxRadius;
+    private double cellSize;
+    private int mask; // number of buckets - 1
+
+    private int[] bucket = new int[0]; // bucket of every body, -1 for removed bodies
+    private int[] bucketStart = new int[0]; // range of the bodies of every bucket in 'sorted'
+    private int[] sorted = new int[0]; // indices of the bodies sorted by bucket
+    private int[] next = new int[0]; // next free position of every bucket in 'sorted' while sorting
+    private int[] parent = new int[0]; // union-find forest of the overlapping bodies
+    private Pairs[] pairs = new Pairs[0]; // pairs found by every task
+
+    // pairs of overlapping bodies, i < j
+    private static class Pairs {
+
+        private int size;
+        private int[] i = new int[16];
+        private int[] j = new int[16];
+
+        private void add(int i, int j) {
+            if (size == this.i.length) {
+                this.i = Arrays.copyOf(this.i, 2 * size);
+                this.j = Arrays.copyOf(this.j, 2 * size);
+            }
+            this.i[size] = i;
+            this.j[size] = j;
+            size++;
+        }
+    }
+
+    // merges all overlapping bodies of the store and returns the number of bodies removed by merging
+    public int merge(BodyStore store) {
+        this.store = store;
+        int size = store.size();
+        maxRadius = 0;
+        int live = 0;
+        for (int i = 0; i < size; i++) {
+            if (store.mass[i] > 0) {
+                maxRadius = Math.max(maxRadius, store.radius[i]);
+                live++;
+            }
+        }
+        if (live < 2 || maxRadius == 0) {
+            return 0;
+        }
+        cellSize = 2 * maxRadius;
+        sortIntoBuckets(size, live);
+
+        int tasks = (size + BODIES_PER_TASK - 1) / BODIES_PER_TASK;
+        if (pairs.length < tasks) {
+            pairs = new Pairs[tasks];
+            for (int t = 0; t < tasks; t++) {
+                pairs[t] = new Pairs();
+            }
+        }
+        PairTask task = new PairTask(0, tasks);
+        if (Simulation.PARALLELISM > 1) {
+            Simulation.pool().invoke(task);
+        } else {
+            task.findPairs();
+        }
+
+        if (parent.length < size) {
+            parent = new int[size];
+        }
+        for (int i = 0; i < size; i++) {
+            parent[i] = i;
+        }
+        boolean found = false;
+        for (int t = 0; t < tasks; t++) {
+            for (int p = 0; p < pairs[t].size; p++) {
+                union(pairs[t].i[p], pairs[t].j[p]);
+                found = true;
+            }
+        }
+        if (!found) {
+            return 0;
+        }
+
+        int merged = 0;
+        for (int i = 0; i < size; i++) {
+            int root = find(i);
+            if (root != i) {
+                new Body(store, root).merge(new Body(store, i));
+                merged++;
+            }
+        }
+        Metrics.METRICS.bodiesMerged.add(merged);
+        return merged;
+    }
+
+    // sorts the indices of the live bodies by the bucket of their cell (counting sort)
+    private void sortIntoBuckets(int size, int live) {
+        int buckets = Integer.highestOneBit(Math.max(2 * live - 1, 8)) << 1;
+        mask = buckets - 1;
+        if (bucket.length < size) {
+            bucket = new int[size];
+            sorted = new int[size];
+        }
+        if (bucketStart.length < buckets + 1) {
+            bucketStart = new int[buckets + 1];
+            next = new int[buckets];
+        } else {
+            Arrays.fill(bucketStart, 0, buckets + 1, 0);
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (store.mass[i] > 0) {
+                bucket[i] = bucket(cell(store.x[i]), cell(store.y[i]), cell(store.z[i]));
+                bucketStart[bucket[i] + 1]++;
+            } else {
+                bucket[i] = -1;
+            }
+        }
+        for (int b = 0; b < buckets; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        System.arraycopy(bucketStart, 0, next, 0, buckets);
+        for (int i = 0; i < size; i++) {
+            if (bucket[i] >= 0) {
+                sorted[next[bucket[i]]++] = i;
+            }
+        }
+    }
+
+    private long cell(double coordinate) {
+        return (long) Math.floor(coordinate / cellSize);
+    }
+
+    private int bucket(long x, long y, long z) {
+        long hash = x * 0x9E3779B97F4A7C15L + y * 0xC2B2AE3D27D4EB4FL + z * 0x165667B19E3779F9L;
+        return (int) (hash ^ hash >>> 29) & mask;
+    }
+
+    // adds the pairs of body i with the bodies j > i that overlap it. Only the cells within the radius
+    // of i plus the largest radius are searched, that are at most the neighbouring cells.
+    // ('visited' holds the buckets already searched)
+    private void findPairs(int i, Pairs result, int[] visited) {
+        double reach = store.radius[i] + maxRadius;
+        double x = store.x[i];
+        double y = store.y[i];
+        double z = store.z[i];
+        int visitedCount = 0;
+        for (long cx = cell(x - reach); cx <= cell(x + reach); cx++) {
+            for (long cy = cell(y - reach); cy <= cell(y + reach); cy++) {
+                for (long cz = cell(z - reach); cz <= cell(z + reach); cz++) {
+                    int b = bucket(cx, cy, cz);
+                    boolean seen = false; // two neighbouring cells may share a bucket
+                    for (int v = 0; v < visitedCount; v++) {
+                        seen |= visited[v] == b;
+                    }
+                    if (seen) {
+                        continue;
+                    }
+                    visited[visitedCount++] = b;
+                    for (int s = bucketStart[b]; s < bucketStart[b + 1]; s++) {
+                        int j = sorted[s];
+                        if (j > i && overlap(i, j)) {
+                            result.add(i, j);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean overlap(int i, int j) {
+        double dx = store.x[i] - store.x[j];
+        double dy = store.y[i] - store.y[j];
+        double dz = store.z[i] - store.z[j];
+        double radii = store.radius[i] + store.radius[j];
+        return dx * dx + dy * dy + dz * dz < radii * radii;
+    }
+
+    private int find(int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    // joins the groups of i and j, the root of a group is always its smallest index
+    private void union(int i, int j) {
+        int rootI = find(i);
+        int rootJ = find(j);
+        if (rootI < rootJ) {
+            parent[rootJ] = rootI;
+        } else if (rootJ < rootI) {
+            parent[rootI] = rootJ;
+        }
+    }
+
+    // searches the pairs of the bodies of the tasks in [start, end), every task covers BODIES_PER_TASK bodies
+    private class PairTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+
+        private PairTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= 1) {
+                findPairs();
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new PairTask(start, middle), new PairTask(middle, end));
+            }
+        }
+
+        private void findPairs() {
+            int[] visited = new int[27];
+            for (int t = start; t < end; t++) {
+                pairs[t].size = 0;
+                for (int i = t * BODIES_PER_TASK; i < Math.min((t + 1) * BODIES_PER_TASK, store.size()); i++) {
+                    if (bucket[i] >= 0) {
+                        Collisions.this.findPairs(i, pairs[t], visited);
+                    }
+                }
+            }
+        }
+    }
+}
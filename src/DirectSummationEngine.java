@@ -0,0 +1,158 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+// Force engine that sums up the forces of all pairs of bodies (O(n^2)), without any approximation.
+// It is used as reference for the accuracy of the other engines, and for small numbers of bodies,
+// where it is faster than building and traversing the octree (see Simulation.DIRECT_SUMMATION_LIMIT).
+// The simulation then takes the bodies from the store and builds no octree at all.
+// The bodies are copied to primitive arrays and processed in tiles that fit into the cache. The inner
+// loop has no dependencies between iterations apart from the sums, its only condition leaves out the
+// body itself.
+public class DirectSummationEngine implements ForceEngine {
+
+    // number of bodies whose positions are read from the cache while summing up the forces of a tile
+    private static final int TILE = 512;
+
+    private final List<Body> bodies = new ArrayList<>();
+    private int size;
+    private double[] x = new double[0];
+    private double[] y = new double[0];
+    private double[] z = new double[0];
+    private double[] mass = new double[0];
+    private double[] fx = new double[0];
+    private double[] fy = new double[0];
+    private double[] fz = new double[0];
+    private int[] slot = new int[0]; // index of every body in the store (calculateForces(BodyStore) only)
+
+    @Override
+    public void calculateForces(Octree octree) {
+        bodies.clear();
+        octree.collectBodies(bodies);
+        size = bodies.size();
+        ensureCapacity(size);
+        for (int i = 0; i < size; i++) {
+            Body body = bodies.get(i);
+            x[i] = body.x();
+            y[i] = body.y();
+            z[i] = body.z();
+            mass[i] = body.mass();
+        }
+
+        calculateForces();
+
+        for (int i = 0; i < size; i++) {
+            bodies.get(i).setGravitationalForce(fx[i], fy[i], fz[i]);
+        }
+    }
+
+    // calculates the forces on all bodies of the store that were not removed, without an octree
+    public void calculateForces(BodyStore store) {
+        ensureCapacity(store.size());
+        size = 0;
+        for (int i = 0; i < store.size(); i++) {
+            if (store.mass[i] > 0) {
+                slot[size] = i;
+                x[size] = store.x[i];
+                y[size] = store.y[i];
+                z[size] = store.z[i];
+                mass[size] = store.mass[i];
+                size++;
+            }
+        }
+
+        calculateForces();
+
+        for (int i = 0; i < size; i++) {
+            store.fx[slot[i]] = fx[i];
+            store.fy[slot[i]] = fy[i];
+            store.fz[slot[i]] = fz[i];
+        }
+    }
+
+    // returns the number of bodies of the last calculation
+    public int size() {
+        return size;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (x.length < capacity) {
+            x = new double[capacity];
+            y = new double[capacity];
+            z = new double[capacity];
+            mass = new double[capacity];
+            fx = new double[capacity];
+            fy = new double[capacity];
+            fz = new double[capacity];
+            slot = new int[capacity];
+        }
+    }
+
+    // calculates the forces of all bodies in the arrays
+    private void calculateForces() {
+        if (Simulation.PARALLELISM > 1) {
+            Simulation.pool().invoke(new TileTask(0, size));
+        } else {
+            calculateForces(0, size);
+        }
+    }
+
+    // calculates the forces exerted by all bodies on the bodies in [start, end)
+    private void calculateForces(int start, int end) {
+        for (int i = start; i < end; i++) {
+            fx[i] = 0;
+            fy[i] = 0;
+            fz[i] = 0;
+        }
+        for (int tile = 0; tile < size; tile += TILE) {
+            int tileEnd = Math.min(tile + TILE, size);
+            for (int i = start; i < end; i++) {
+                double bx = x[i];
+                double by = y[i];
+                double bz = z[i];
+                double sx = 0;
+                double sy = 0;
+                double sz = 0;
+                for (int j = tile; j < tileEnd; j++) {
+                    double dx = x[j] - bx;
+                    double dy = y[j] - by;
+                    double dz = z[j] - bz;
+                    double r2 = dx * dx + dy * dy + dz * dz;
+                    // a body exerts no force on itself (r2 is 0 only for the body itself)
+                    double f = r2 == 0 ? 0 : mass[j] / (r2 * Math.sqrt(r2));
+                    sx += dx * f;
+                    sy += dy * f;
+                    sz += dz * f;
+                }
+                double factor = Simulation.G * mass[i];
+                fx[i] += sx * factor;
+                fy[i] += sy * factor;
+                fz[i] += sz * factor;
+            }
+        }
+    }
+
+    // calculates the forces of the bodies in [start, end), split into tiles for the pool
+    private class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+
+        private TileTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= TILE / 4) {
+                calculateForces(start, end);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new TileTask(start, middle), new TileTask(middle, end));
+            }
+        }
+    }
+}
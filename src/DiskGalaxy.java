@@ -0,0 +1,41 @@
+import java.util.SplittableRandom;
+
+// A rotating disk galaxy: a central body with CENTRAL_MASS of the overall mass, and an exponential
+// disk (surface density ~ exp(-r / SCALE_LENGTH)) of bodies on circular orbits around the mass
+// within their radius. The disk is thin in z if DRAW_3D, and flat otherwise.
+public class DiskGalaxy extends RandomConditions {
+
+    private static final double CENTRAL_MASS = 0.1;
+    private static final double SCALE_LENGTH = Simulation.SECTION_SIZE / 16;
+    private static final double MAX_RADIUS = 0.45 * Simulation.SECTION_SIZE;
+    private static final double THICKNESS = 0.05 * SCALE_LENGTH;
+
+    public DiskGalaxy(long seed) {
+        super(seed);
+    }
+
+    @Override
+    protected void create(BodyStore store, int i, int count, SplittableRandom random) {
+        double centralMass = CENTRAL_MASS * Simulation.OVERALL_SYSTEM_MASS;
+        if (i == 0) {
+            store.set(i, centralMass, 0, 0, 0, 0, 0, 0);
+            return;
+        }
+        double diskMass = Simulation.OVERALL_SYSTEM_MASS - centralMass;
+
+        // the radius of an exponential disk follows a gamma distribution with shape 2
+        double r;
+        do {
+            r = -SCALE_LENGTH * Math.log((1 - random.nextDouble()) * (1 - random.nextDouble()));
+        } while (r > MAX_RADIUS);
+        double phi = 2 * Math.PI * random.nextDouble();
+
+        double x = r / SCALE_LENGTH;
+        double enclosedMass = centralMass + diskMass * (1 - (1 + x) * Math.exp(-x));
+        double v = Math.sqrt(Simulation.G * enclosedMass / r);
+        double z = Simulation.DRAW_3D ? random.nextGaussian() * THICKNESS : 0;
+
+        store.set(i, diskMass / (count - 1), r * Math.cos(phi), r * Math.sin(phi), z,
+                -v * Math.sin(phi), v * Math.cos(phi), 0);
+    }
+}
@@ -0,0 +1,160 @@
+import java.util.Arrays;
+
+// Force engine that lets octants interact with each other instead of single bodies with octants
+// (dual tree walk, a fast multipole method with monopoles and local expansions of first order).
+// When two octants are far enough away from each other, each one adds the field of the other one to
+// its local expansion: the acceleration at its mass center and the gradient of the acceleration.
+// Otherwise the bigger octant is divided. At the end the local expansions are passed down to the
+// bodies. The number of interactions grows linearly with the number of bodies.
+public class DualTreeEngine implements ForceEngine {
+
+    // local expansion: acceleration x, y, z and its gradient xx, xy, xz, yy, yz, zz
+    private static final int LOCAL_SIZE = 9;
+
+    private final Vector3 forceSum = new Vector3();
+    private final double[] acceleration = new double[3];
+
+    @Override
+    public void calculateForces(Octree octree) {
+        clear(octree);
+        interact(octree);
+        passDown(octree);
+    }
+
+    // sets the local expansions of all octants and the forces of all bodies to zero
+    private void clear(Octree tree) {
+        double[] local = tree.getOctant().getLocal();
+        if (local == null) {
+            tree.getOctant().setLocal(new double[LOCAL_SIZE]);
+        } else {
+            Arrays.fill(local, 0);
+        }
+        if (tree.isDivided()) {
+            for (Octree child : tree.getChildren()) {
+                clear(child);
+            }
+        } else {
+            for (int i = 0; i < tree.getBodyCount(); i++) {
+                tree.getBody(i).resetGravitationalForce();
+            }
+        }
+    }
+
+    // lets all pairs of bodies within tree interact
+    private void interact(Octree tree) {
+        if (tree.isDivided()) {
+            Octree[] children = tree.getChildren();
+            for (int i = 0; i < children.length; i++) {
+                if (children[i].getOctant().getMass() == 0) {
+                    continue;
+                }
+                interact(children[i]);
+                for (int j = i + 1; j < children.length; j++) {
+                    if (children[j].getOctant().getMass() != 0) {
+                        interact(children[i], children[j]);
+                    }
+                }
+            }
+        } else {
+            for (int i = 0; i < tree.getBodyCount(); i++) {
+                for (int j = i + 1; j < tree.getBodyCount(); j++) {
+                    interact(tree.getBody(i), tree.getBody(j));
+                }
+            }
+        }
+    }
+
+    // lets all bodies of a interact with all bodies of b (a and b do not overlap)
+    private void interact(Octree a, Octree b) {
+        Octant octantA = a.getOctant();
+        Octant octantB = b.getOctant();
+        double dx = octantB.getMassCenter().x - octantA.getMassCenter().x;
+        double dy = octantB.getMassCenter().y - octantA.getMassCenter().y;
+        double dz = octantB.getMassCenter().z - octantA.getMassCenter().z;
+        double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+        if ((octantA.getLength() + octantB.getLength()) / distance < Simulation.THETA) {
+            addField(octantA.getLocal(), octantB.getMass(), dx, dy, dz, distance);
+            addField(octantB.getLocal(), octantA.getMass(), -dx, -dy, -dz, distance);
+        } else if (!a.isDivided() && !b.isDivided()) {
+            for (int i = 0; i < a.getBodyCount(); i++) {
+                for (int j = 0; j < b.getBodyCount(); j++) {
+                    interact(a.getBody(i), b.getBody(j));
+                }
+            }
+        } else if (!b.isDivided() || (a.isDivided() && octantA.getLength() >= octantB.getLength())) {
+            for (Octree child : a.getChildren()) {
+                if (child.getOctant().getMass() != 0) {
+                    interact(child, b);
+                }
+            }
+        } else {
+            for (Octree child : b.getChildren()) {
+                if (child.getOctant().getMass() != 0) {
+                    interact(a, child);
+                }
+            }
+        }
+    }
+
+    // lets two bodies interact directly
+    private void interact(Body a, Body b) {
+        forceSum.set(0, 0, 0);
+        a.gravitationalForce(b, forceSum);
+        a.addGravitationalForce(forceSum.x, forceSum.y, forceSum.z);
+        b.addGravitationalForce(-forceSum.x, -forceSum.y, -forceSum.z);
+    }
+
+    // adds the field of a mass at [dx,dy,dz] relative to the mass center of an octant to its local expansion
+    private static void addField(double[] local, double mass, double dx, double dy, double dz, double distance) {
+        double r2 = distance * distance;
+        double r3 = r2 * distance;
+        double a = Simulation.G * mass / r3;
+        double g = 3 * a / r2;
+        local[0] += a * dx;
+        local[1] += a * dy;
+        local[2] += a * dz;
+        local[3] += g * dx * dx - a;
+        local[4] += g * dx * dy;
+        local[5] += g * dx * dz;
+        local[6] += g * dy * dy - a;
+        local[7] += g * dy * dz;
+        local[8] += g * dz * dz - a;
+    }
+
+    // shifts the local expansion of tree to its children and finally adds it to the force of the bodies
+    private void passDown(Octree tree) {
+        double[] local = tree.getOctant().getLocal();
+        Vector3 center = tree.getOctant().getMassCenter();
+        if (tree.isDivided()) {
+            for (Octree child : tree.getChildren()) {
+                if (child.getOctant().getMass() == 0) {
+                    continue;
+                }
+                double[] childLocal = child.getOctant().getLocal();
+                Vector3 childCenter = child.getOctant().getMassCenter();
+                shift(local, childCenter.x - center.x, childCenter.y - center.y, childCenter.z - center.z, childLocal);
+                passDown(child);
+            }
+        } else {
+            for (int i = 0; i < tree.getBodyCount(); i++) {
+                Body body = tree.getBody(i);
+                Arrays.fill(acceleration, 0);
+                shift(local, body.x() - center.x, body.y() - center.y, body.z() - center.z, acceleration);
+                body.addGravitationalForce(acceleration[0] * body.mass(), acceleration[1] * body.mass(), acceleration[2] * body.mass());
+            }
+        }
+    }
+
+    // adds the local expansion 'local' moved by [dx,dy,dz] to 'target' (a local expansion or an acceleration)
+    private static void shift(double[] local, double dx, double dy, double dz, double[] target) {
+        target[0] += local[0] + local[3] * dx + local[4] * dy + local[5] * dz;
+        target[1] += local[1] + local[4] * dx + local[6] * dy + local[7] * dz;
+        target[2] += local[2] + local[5] * dx + local[7] * dy + local[8] * dz;
+        if (target.length == LOCAL_SIZE) {
+            for (int i = 3; i < LOCAL_SIZE; i++) {
+                target[i] += local[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,6 @@
+// A force engine calculates the gravitational force exerted on every body of an octree
+// (whose mass and mass center are aggregated) and stores it in the bodies.
+public interface ForceEngine {
+
+    void calculateForces(Octree octree);
+}
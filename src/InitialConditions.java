@@ -0,0 +1,6 @@
+// Creates the bodies the simulation starts with (see Simulation.INITIAL_CONDITIONS).
+public interface InitialConditions {
+
+    // returns a store with the bodies, 'count' of them unless they are loaded from a file
+    BodyStore createBodies(int count);
+}
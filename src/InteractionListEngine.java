@@ -0,0 +1,346 @@
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+// Force engine that walks the octree once per leaf instead of once per body (interaction lists). For
+// every leaf ("group") it records the octants that are far enough away from all bodies of the group, and
+// the leaves whose bodies are summed up directly. The force on a body is then a loop over the lists of
+// its group, without any opening criterion. Only monopoles are used.
+// By default (LIST_MARGIN 0) the lists are made again in every iteration. With a margin, an octant is
+// only approximated for a group if length / (distance - 2 * LIST_MARGIN) < THETA, with the distance
+// between its mass center and the box around the bodies of the group. This makes the lists longer and
+// the forces more accurate. The lists are then kept until a body moved further than LIST_MARGIN, or
+// bodies were merged or dropped, but that does not save time: one moving body makes all of them again.
+// The lists do not refer to the octree, which is built again every iteration: the engine keeps the
+// octants of the octree it was built from (every octant is a range of bodies in tree order) and sets
+// their mass and mass center from the current positions of their bodies before every calculation.
+public class InteractionListEngine implements ForceEngine {
+
+    // number of groups handled by one task
+    private static final int GROUPS_PER_TASK = 16;
+
+    private Body[] bodies = new Body[0]; // bodies in tree order
+    private int count;
+    private double[] x0 = new double[0]; // positions of the bodies when the lists were made
+    private double[] y0 = new double[0];
+    private double[] z0 = new double[0];
+
+    // octants of the octree in pre-order, empty ones are left out
+    private int nodeCount;
+    private int[] next = new int[0]; // index of the node after the subtree of a node
+    private int[] bodyStart = new int[0]; // range of the bodies of a node in 'bodies'
+    private int[] bodyEnd = new int[0];
+    private double[] length = new double[0];
+    private double[] mass = new double[0];
+    private double[] massCenterX = new double[0];
+    private double[] massCenterY = new double[0];
+    private double[] massCenterZ = new double[0];
+
+    // groups (the leaves) and their lists
+    private int groupCount;
+    private int[] group = new int[0]; // node of every group
+    private int[][] far = new int[0][]; // nodes approximated by their mass center
+    private int[] farCount = new int[0];
+    private int[][] near = new int[0][]; // leaves whose bodies are summed up directly
+    private int[] nearCount = new int[0];
+    private boolean valid;
+
+    @Override
+    public void calculateForces(Octree octree) {
+        if (!valid || Simulation.LIST_MARGIN == 0 || !unchanged(octree)) {
+            makeLists(octree);
+        } else {
+            aggregate();
+        }
+        ForceTask task = new ForceTask(0, groupCount);
+        if (Simulation.PARALLELISM > 1) {
+            Simulation.pool().invoke(task);
+        } else {
+            task.calculate();
+        }
+    }
+
+    // returns true if the octree contains the same bodies as the lists, and none of them moved further
+    // than LIST_MARGIN since the lists were made
+    private boolean unchanged(Octree octree) {
+        if (octree.size(octree) != count) {
+            return false;
+        }
+        double margin2 = Simulation.LIST_MARGIN * Simulation.LIST_MARGIN;
+        for (int i = 0; i < count; i++) {
+            Body b = bodies[i];
+            double dx = b.x() - x0[i];
+            double dy = b.y() - y0[i];
+            double dz = b.z() - z0[i];
+            if (b.mass() == 0 || dx * dx + dy * dy + dz * dz > margin2) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // takes the octants and bodies of the octree and makes the lists of all groups
+    private void makeLists(Octree octree) {
+        count = 0;
+        nodeCount = 0;
+        groupCount = 0;
+        addNode(octree);
+        if (x0.length < count) {
+            x0 = new double[bodies.length];
+            y0 = new double[bodies.length];
+            z0 = new double[bodies.length];
+        }
+        for (int i = 0; i < count; i++) {
+            x0[i] = bodies[i].x();
+            y0[i] = bodies[i].y();
+            z0[i] = bodies[i].z();
+        }
+        if (far.length < groupCount) {
+            far = Arrays.copyOf(far, group.length);
+            farCount = new int[group.length];
+            near = Arrays.copyOf(near, group.length);
+            nearCount = new int[group.length];
+        }
+        aggregate();
+        ListTask task = new ListTask(0, groupCount);
+        if (Simulation.PARALLELISM > 1) {
+            Simulation.pool().invoke(task);
+        } else {
+            task.makeLists();
+        }
+        valid = true;
+        Metrics.METRICS.interactionLists.increment();
+    }
+
+    // adds tree and its subtrees with bodies in pre-order, the leaves become groups
+    private void addNode(Octree tree) {
+        int node = nodeCount++;
+        ensureNodeCapacity(nodeCount);
+        length[node] = tree.getOctant().getLength();
+        bodyStart[node] = count;
+        if (tree.isDivided()) {
+            for (Octree child : tree.getChildren()) {
+                if (child.getOctant().getMass() > 0) {
+                    addNode(child);
+                }
+            }
+        } else {
+            for (int i = 0; i < tree.getBodyCount(); i++) {
+                if (count == bodies.length) {
+                    bodies = Arrays.copyOf(bodies, Math.max(1024, 2 * count));
+                }
+                bodies[count++] = tree.getBody(i);
+            }
+            if (groupCount == group.length) {
+                group = Arrays.copyOf(group, Math.max(256, 2 * groupCount));
+            }
+            group[groupCount++] = node;
+        }
+        bodyEnd[node] = count;
+        next[node] = nodeCount;
+    }
+
+    private void ensureNodeCapacity(int capacity) {
+        if (capacity > next.length) {
+            int newLength = Math.max(capacity, 2 * next.length);
+            next = Arrays.copyOf(next, newLength);
+            bodyStart = Arrays.copyOf(bodyStart, newLength);
+            bodyEnd = Arrays.copyOf(bodyEnd, newLength);
+            length = Arrays.copyOf(length, newLength);
+            mass = Arrays.copyOf(mass, newLength);
+            massCenterX = Arrays.copyOf(massCenterX, newLength);
+            massCenterY = Arrays.copyOf(massCenterY, newLength);
+            massCenterZ = Arrays.copyOf(massCenterZ, newLength);
+        }
+    }
+
+    // sets mass and mass center of every node from the current positions of its bodies. Nodes are stored
+    // in pre-order, so going backwards visits all children of a node before the node itself.
+    private void aggregate() {
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            double m = 0;
+            double x = 0;
+            double y = 0;
+            double z = 0;
+            if (next[node] == node + 1) {
+                for (int i = bodyStart[node]; i < bodyEnd[node]; i++) {
+                    Body b = bodies[i];
+                    m += b.mass();
+                    x += b.x() * b.mass();
+                    y += b.y() * b.mass();
+                    z += b.z() * b.mass();
+                }
+            } else {
+                for (int child = node + 1; child < next[node]; child = next[child]) {
+                    m += mass[child];
+                    x += massCenterX[child] * mass[child];
+                    y += massCenterY[child] * mass[child];
+                    z += massCenterZ[child] * mass[child];
+                }
+            }
+            mass[node] = m;
+            massCenterX[node] = x / m;
+            massCenterY[node] = y / m;
+            massCenterZ[node] = z / m;
+        }
+    }
+
+    // makes the lists of group g: the octree is traversed once with the box around the bodies of the group
+    private void makeLists(int g) {
+        int leaf = group[g];
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double maxZ = Double.NEGATIVE_INFINITY;
+        for (int i = bodyStart[leaf]; i < bodyEnd[leaf]; i++) {
+            minX = Math.min(minX, x0[i]);
+            minY = Math.min(minY, y0[i]);
+            minZ = Math.min(minZ, z0[i]);
+            maxX = Math.max(maxX, x0[i]);
+            maxY = Math.max(maxY, y0[i]);
+            maxZ = Math.max(maxZ, z0[i]);
+        }
+        if (far[g] == null) {
+            far[g] = new int[64];
+            near[g] = new int[16];
+        }
+        farCount[g] = 0;
+        nearCount[g] = 0;
+
+        int node = 0;
+        while (node < nodeCount) {
+            // octants containing the group are always opened, they include its own bodies
+            boolean ancestor = bodyStart[node] <= bodyStart[leaf] && bodyEnd[leaf] <= bodyEnd[node];
+            if (!ancestor) {
+                double dx = Math.max(0, Math.max(minX - massCenterX[node], massCenterX[node] - maxX));
+                double dy = Math.max(0, Math.max(minY - massCenterY[node], massCenterY[node] - maxY));
+                double dz = Math.max(0, Math.max(minZ - massCenterZ[node], massCenterZ[node] - maxZ));
+                double distance = Math.sqrt(dx * dx + dy * dy + dz * dz) - 2 * Simulation.LIST_MARGIN;
+                if (distance > 0 && length[node] / distance < Simulation.THETA) {
+                    if (farCount[g] == far[g].length) {
+                        far[g] = Arrays.copyOf(far[g], 2 * farCount[g]);
+                    }
+                    far[g][farCount[g]++] = node;
+                    node = next[node];
+                    continue;
+                }
+            }
+            if (next[node] == node + 1) {
+                if (nearCount[g] == near[g].length) {
+                    near[g] = Arrays.copyOf(near[g], 2 * nearCount[g]);
+                }
+                near[g][nearCount[g]++] = node;
+            }
+            node++;
+        }
+    }
+
+    // calculates the forces of the bodies of group g with its lists
+    private void calculateForces(int g) {
+        int leaf = group[g];
+        int[] farNodes = far[g];
+        int[] nearNodes = near[g];
+        for (int i = bodyStart[leaf]; i < bodyEnd[leaf]; i++) {
+            Body b = bodies[i];
+            double bx = b.x();
+            double by = b.y();
+            double bz = b.z();
+            double fx = 0;
+            double fy = 0;
+            double fz = 0;
+            for (int f = 0; f < farCount[g]; f++) {
+                int node = farNodes[f];
+                double dx = massCenterX[node] - bx;
+                double dy = massCenterY[node] - by;
+                double dz = massCenterZ[node] - bz;
+                double r2 = dx * dx + dy * dy + dz * dz;
+                double force = mass[node] / (r2 * Math.sqrt(r2));
+                fx += dx * force;
+                fy += dy * force;
+                fz += dz * force;
+            }
+            for (int n = 0; n < nearCount[g]; n++) {
+                int node = nearNodes[n];
+                for (int j = bodyStart[node]; j < bodyEnd[node]; j++) {
+                    if (j == i) {
+                        continue;
+                    }
+                    Body other = bodies[j];
+                    double dx = other.x() - bx;
+                    double dy = other.y() - by;
+                    double dz = other.z() - bz;
+                    double r2 = dx * dx + dy * dy + dz * dz;
+                    double force = other.mass() / (r2 * Math.sqrt(r2));
+                    fx += dx * force;
+                    fy += dy * force;
+                    fz += dz * force;
+                }
+            }
+            double factor = Simulation.G * b.mass();
+            b.setGravitationalForce(fx * factor, fy * factor, fz * factor);
+            Metrics.METRICS.nodesVisited.add(farCount[g] + nearCount[g]);
+            Metrics.METRICS.forceCalculations.increment();
+        }
+    }
+
+    // makes the lists of the groups in [start, end)
+    private class ListTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+
+        private ListTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= GROUPS_PER_TASK) {
+                makeLists();
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new ListTask(start, middle), new ListTask(middle, end));
+            }
+        }
+
+        private void makeLists() {
+            for (int g = start; g < end; g++) {
+                InteractionListEngine.this.makeLists(g);
+            }
+        }
+    }
+
+    // calculates the forces of the bodies of the groups in [start, end)
+    private class ForceTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+
+        private ForceTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= GROUPS_PER_TASK) {
+                calculate();
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new ForceTask(start, middle), new ForceTask(middle, end));
+            }
+        }
+
+        private void calculate() {
+            for (int g = start; g < end; g++) {
+                calculateForces(g);
+            }
+        }
+    }
+}
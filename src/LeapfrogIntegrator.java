@@ -0,0 +1,192 @@
+import java.util.concurrent.RecursiveAction;
+
+// Moves the bodies with a kick-drift-kick leapfrog and hierarchical block timesteps (see
+// Simulation.LEAPFROG). One step advances Simulation.TIMESTEP seconds, divided into 2^MAX_RUNG
+// substeps. A body on rung k takes steps of TIMESTEP / 2^k seconds: half a kick with its acceleration
+// at the beginning of its step, the drift of all bodies in every substep, and the other half of the
+// kick with the acceleration at the end of its step. Forces are only calculated for the bodies
+// whose step ends ("active" bodies), on an octree of the positions at that time. At the end of a
+// step all bodies are synchronized again.
+// The octree is only built again when the bodies of the slow rungs (0 and 1) end their step, i.e. in
+// the middle and at the end of a step. In the substeps between, it is refitted to the drifted
+// positions (see Octree.refit), unless the root octant changed or too many bodies left their leaves
+// (Simulation.REBUILD_THRESHOLD).
+// The rung of a body is chosen from its acceleration: the largest step not longer than
+// sqrt(STEP_LENGTH / acceleration). A body may only move to a longer step when the longer step
+// starts at that time, so all steps stay aligned.
+public class LeapfrogIntegrator {
+
+    // number of bodies handled by one task when forces are calculated in parallel
+    private static final int BODIES_PER_TASK = 256;
+
+    // rung of bodies that left the root octant (only without DYNAMIC_BOUNDS), they are not moved any more
+    private static final int DROPPED = -1;
+
+    private final BodyStore store;
+
+    private double[] ax = new double[0]; // acceleration at the last calculation of the force
+    private double[] ay = new double[0];
+    private double[] az = new double[0];
+    private int[] rung = new int[0];
+    private int[] active = new int[0]; // indices of the active bodies
+    private int activeCount;
+    private boolean started;
+
+    public LeapfrogIntegrator(BodyStore store) {
+        this.store = store;
+    }
+
+    // moves all bodies of the store by one step and returns an octree with their new positions.
+    // 'octree' has to contain the bodies at their current positions.
+    public Octree step(Octree octree) {
+        int substeps = 1 << Simulation.MAX_RUNG;
+        double h = Simulation.TIMESTEP / substeps;
+        if (!started) {
+            start(octree);
+        }
+
+        for (int s = 0; s < substeps; s++) {
+            // first half of the kick of the bodies beginning a step, and drift of all bodies
+            for (int i = 0; i < store.size(); i++) {
+                if (rung[i] == DROPPED || store.mass[i] == 0) {
+                    continue;
+                }
+                if (s % stride(rung[i]) == 0) {
+                    kick(i, duration(rung[i]) / 2);
+                }
+                store.x[i] += store.vx[i] * h;
+                store.y[i] += store.vy[i] * h;
+                store.z[i] += store.vz[i] * h;
+            }
+
+            // second half of the kick of the bodies ending their step
+            Octant octant = Simulation.rootOctant(store);
+            activeCount = 0;
+            for (int i = 0; i < store.size(); i++) {
+                if (rung[i] == DROPPED || store.mass[i] == 0) {
+                    continue;
+                }
+                if (!octant.contains(store.x[i], store.y[i], store.z[i])) {
+                    rung[i] = DROPPED;
+                } else if ((s + 1) % stride(rung[i]) == 0) {
+                    active[activeCount++] = i;
+                }
+            }
+            if (activeCount > 0) {
+                if ((s + 1) % stride(1) == 0 || octant.getLength() != octree.getOctant().getLength()
+                        || octree.refit() > Simulation.REBUILD_THRESHOLD) {
+                    octree = Simulation.rebuild(octree, octant);
+                }
+                calculateAccelerations(octree);
+                for (int a = 0; a < activeCount; a++) {
+                    int i = active[a];
+                    kick(i, duration(rung[i]) / 2);
+                    int newRung = rung(i);
+                    if (newRung > rung[i] || (s + 1) % stride(newRung) == 0) {
+                        rung[i] = newRung;
+                    }
+                }
+            }
+        }
+        return octree;
+    }
+
+    // calculates the accelerations of all bodies and their first rungs
+    private void start(Octree octree) {
+        Octant octant = octree.getOctant();
+        int size = store.size();
+        ax = new double[size];
+        ay = new double[size];
+        az = new double[size];
+        rung = new int[size];
+        active = new int[size];
+        activeCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (store.mass[i] > 0 && octant.contains(store.x[i], store.y[i], store.z[i])) {
+                active[activeCount++] = i;
+            } else {
+                rung[i] = DROPPED;
+            }
+        }
+        calculateAccelerations(octree);
+        for (int a = 0; a < activeCount; a++) {
+            rung[active[a]] = rung(active[a]);
+        }
+        started = true;
+    }
+
+    private void kick(int i, double duration) {
+        store.vx[i] += ax[i] * duration;
+        store.vy[i] += ay[i] * duration;
+        store.vz[i] += az[i] * duration;
+    }
+
+    // returns the rung fitting the current acceleration of body i
+    private int rung(int i) {
+        double acceleration = Math.sqrt(ax[i] * ax[i] + ay[i] * ay[i] + az[i] * az[i]);
+        double duration = Math.sqrt(Simulation.STEP_LENGTH / acceleration);
+        int k = (int) Math.ceil(Math.log(Simulation.TIMESTEP / duration) / Math.log(2));
+        return Math.max(0, Math.min(k, Simulation.MAX_RUNG));
+    }
+
+    // duration of a step on rung k in seconds
+    private static double duration(int k) {
+        return Simulation.TIMESTEP / (1 << k);
+    }
+
+    // number of substeps of a step on rung k
+    private static int stride(int k) {
+        return 1 << (Simulation.MAX_RUNG - k);
+    }
+
+    // calculates the accelerations of the active bodies with the octree (Barnes-Hut)
+    private void calculateAccelerations(Octree octree) {
+        AccelerationTask task = new AccelerationTask(octree, 0, activeCount);
+        if (Simulation.PARALLELISM > 1) {
+            Simulation.pool().invoke(task);
+        } else {
+            task.calculate();
+        }
+    }
+
+    // calculates the accelerations of the active bodies in [start, end)
+    private class AccelerationTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Octree octree;
+        private final int start;
+        private final int end;
+
+        private AccelerationTask(Octree octree, int start, int end) {
+            this.octree = octree;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= BODIES_PER_TASK) {
+                calculate();
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new AccelerationTask(octree, start, middle), new AccelerationTask(octree, middle, end));
+            }
+        }
+
+        private void calculate() {
+            Vector3 forceSum = new Vector3();
+            for (int a = start; a < end; a++) {
+                int i = active[a];
+                Body body = new Body(store, i);
+                forceSum.set(0, 0, 0);
+                Metrics.METRICS.nodesVisited.add(octree.gravitationalForce(body, forceSum));
+                Metrics.METRICS.forceCalculations.increment();
+                body.setGravitationalForce(forceSum);
+                ax[i] = forceSum.x / store.mass[i];
+                ay[i] = forceSum.y / store.mass[i];
+                az[i] = forceSum.z / store.mass[i];
+            }
+        }
+    }
+}
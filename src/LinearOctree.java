@@ -0,0 +1,385 @@
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+// This class represents an octree without linked nodes. The bodies are sorted by the morton key of
+// their position within the root octant, so the bodies of every octant form a contiguous range.
+// Only non-empty octants become nodes, they are stored in pre-order in flat arrays, and 'next'
+// points behind the subtree of a node. Calculating a force is a forward scan through the arrays.
+public class LinearOctree {
+
+    // bits per coordinate, three coordinates make a 63 bit morton key
+    private static final int LEVELS = 21;
+
+    // number of bodies handled by one task when forces are calculated in parallel
+    private static final int BODIES_PER_TASK = 256;
+
+    private Octant octant;
+    private final BodyStore store;
+    private final double[] lengths = new double[LEVELS + 1]; // length of an octant on each level
+
+    private int size; // number of bodies in this octree
+    private int[] order = new int[0]; // indices of the bodies in the store, sorted by key
+    private long[] keys = new long[0];
+    private int[] orderBuffer = new int[0];
+    private long[] keyBuffer = new long[0];
+
+    private int nodeCount;
+    private int[] next = new int[0]; // index of the node after the subtree of a node
+    private int[] level = new int[0];
+    private int[] bodyStart = new int[0]; // range of the bodies of a node in 'order'
+    private int[] bodyEnd = new int[0];
+    private double[] mass = new double[0];
+    private double[] massCenterX = new double[0];
+    private double[] massCenterY = new double[0];
+    private double[] massCenterZ = new double[0];
+
+    public LinearOctree(Octant octant, BodyStore store) {
+        this.store = store;
+        setOctant(octant);
+    }
+
+    // sets the root octant, used by the next rebuild() or addAllBodies()
+    public void setOctant(Octant octant) {
+        this.octant = octant;
+        for (int i = 0; i <= LEVELS; i++) {
+            lengths[i] = octant.getLength() / (1L << i);
+        }
+    }
+
+    // adds all bodies of the store (that are not removed) to this octree
+    public void addAllBodies() {
+        int[] indices = new int[store.size()];
+        int count = 0;
+        for (int i = 0; i < store.size(); i++) {
+            if (store.mass[i] > 0) {
+                indices[count++] = i;
+            }
+        }
+        build(indices, count);
+    }
+
+    // builds this octree again from its own bodies, after they moved.
+    // Bodies that left the root octant are dropped.
+    public void rebuild() {
+        build(order, size);
+    }
+
+    // builds this octree from the first count bodies in indices, which may be 'order' itself
+    private void build(int[] indices, int count) {
+        if (order.length < count) {
+            order = Arrays.copyOf(indices, count);
+            keys = new long[count];
+            orderBuffer = new int[count];
+            keyBuffer = new long[count];
+        } else if (indices != order) {
+            System.arraycopy(indices, 0, order, 0, count);
+        }
+
+        size = 0;
+        for (int i = 0; i < count; i++) {
+            int index = order[i];
+            if (octant.contains(store.x[index], store.y[index], store.z[index])) {
+                order[size] = index;
+                keys[size] = key(store.x[index], store.y[index], store.z[index]);
+                size++;
+            } else {
+                Metrics.METRICS.bodiesDropped.increment();
+            }
+        }
+        sort();
+
+        nodeCount = 0;
+        if (size > 0) {
+            buildNode(0, size, 0);
+            aggregate();
+        }
+    }
+
+    // returns the morton key of a position inside the root octant: the bits of the
+    // coordinates are interleaved, so that every level adds three bits in the order z, y, x.
+    // (the same order as the children in Octree)
+    private long key(double x, double y, double z) {
+        long max = (1L << LEVELS) - 1;
+        double scale = (1L << LEVELS) / octant.getLength();
+        long kx = Math.min((long) ((x - octant.getX()) * scale), max);
+        long ky = Math.min((long) ((y - octant.getY()) * scale), max);
+        long kz = Math.min((long) ((z - octant.getZ()) * scale), max);
+        return spread(kx) | spread(ky) << 1 | spread(kz) << 2;
+    }
+
+    // spreads the lower 21 bits of v so that there are two zero bits between every two bits
+    private static long spread(long v) {
+        v &= 0x1fffffL;
+        v = (v | v << 32) & 0x1f00000000ffffL;
+        v = (v | v << 16) & 0x1f0000ff0000ffL;
+        v = (v | v << 8) & 0x100f00f00f00f00fL;
+        v = (v | v << 4) & 0x10c30c30c30c30c3L;
+        v = (v | v << 2) & 0x1249249249249249L;
+        return v;
+    }
+
+    // sorts the keys together with the body indices (LSD radix sort, 8 bits per pass, stable)
+    private void sort() {
+        int[] counts = new int[257];
+        for (int shift = 0; shift < 3 * LEVELS; shift += 8) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < size; i++) {
+                counts[(int) (keys[i] >>> shift & 0xff) + 1]++;
+            }
+            for (int i = 0; i < 256; i++) {
+                counts[i + 1] += counts[i];
+            }
+            for (int i = 0; i < size; i++) {
+                int bucket = (int) (keys[i] >>> shift & 0xff);
+                keyBuffer[counts[bucket]] = keys[i];
+                orderBuffer[counts[bucket]] = order[i];
+                counts[bucket]++;
+            }
+            long[] k = keys;
+            keys = keyBuffer;
+            keyBuffer = k;
+            int[] o = order;
+            order = orderBuffer;
+            orderBuffer = o;
+        }
+    }
+
+    // adds the node for the bodies in [start, end) on level l and the nodes of its non-empty children
+    private void buildNode(int start, int end, int l) {
+        int node = nodeCount++;
+        ensureNodeCapacity(nodeCount);
+        level[node] = l;
+        bodyStart[node] = start;
+        bodyEnd[node] = end;
+
+        if (end - start > Simulation.LEAF_CAPACITY && l < LEVELS) {
+            int shift = 3 * (LEVELS - 1 - l);
+            int childStart = start;
+            while (childStart < end) {
+                long child = keys[childStart] >>> shift & 7;
+                int childEnd = childStart + 1;
+                while (childEnd < end && (keys[childEnd] >>> shift & 7) == child) {
+                    childEnd++;
+                }
+                buildNode(childStart, childEnd, l + 1);
+                childStart = childEnd;
+            }
+        }
+        next[node] = nodeCount;
+    }
+
+    // sets mass and mass center of every node. Nodes are stored in pre-order, so going backwards
+    // visits all children of a node before the node itself.
+    private void aggregate() {
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            double m = 0;
+            double x = 0;
+            double y = 0;
+            double z = 0;
+            if (isLeaf(node)) {
+                for (int i = bodyStart[node]; i < bodyEnd[node]; i++) {
+                    int index = order[i];
+                    m += store.mass[index];
+                    x += store.x[index] * store.mass[index];
+                    y += store.y[index] * store.mass[index];
+                    z += store.z[index] * store.mass[index];
+                }
+            } else {
+                for (int child = node + 1; child < next[node]; child = next[child]) {
+                    m += mass[child];
+                    x += massCenterX[child] * mass[child];
+                    y += massCenterY[child] * mass[child];
+                    z += massCenterZ[child] * mass[child];
+                }
+            }
+            mass[node] = m;
+            massCenterX[node] = x / m;
+            massCenterY[node] = y / m;
+            massCenterZ[node] = z / m;
+        }
+    }
+
+    private boolean isLeaf(int node) {
+        return next[node] == node + 1;
+    }
+
+    private void ensureNodeCapacity(int capacity) {
+        if (capacity > next.length) {
+            int length = Math.max(capacity, 2 * next.length);
+            next = Arrays.copyOf(next, length);
+            level = Arrays.copyOf(level, length);
+            bodyStart = Arrays.copyOf(bodyStart, length);
+            bodyEnd = Arrays.copyOf(bodyEnd, length);
+            mass = Arrays.copyOf(mass, length);
+            massCenterX = Arrays.copyOf(massCenterX, length);
+            massCenterY = Arrays.copyOf(massCenterY, length);
+            massCenterZ = Arrays.copyOf(massCenterZ, length);
+        }
+    }
+
+    // calculates the gravitational force exerted on the body at position p of 'order' and stores it in the store.
+    // The same opening criterion as in Octree is applied to every child of a node, a leaf with several
+    // bodies is never approximated for one of its own bodies.
+    private void calculateForce(int p) {
+        int index = order[p];
+        double bx = store.x[index];
+        double by = store.y[index];
+        double bz = store.z[index];
+        double bMass = store.mass[index];
+        double fx = 0;
+        double fy = 0;
+        double fz = 0;
+        int visited = 0;
+
+        int node = isLeaf(0) ? 0 : 1;
+        while (node < nodeCount) {
+            visited++;
+            double dx = massCenterX[node] - bx;
+            double dy = massCenterY[node] - by;
+            double dz = massCenterZ[node] - bz;
+            double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            if (node > 0 && lengths[level[node]] / distance < Simulation.THETA
+                    && !(isLeaf(node) && bodyEnd[node] - bodyStart[node] > 1 && bodyStart[node] <= p && p < bodyEnd[node])) {
+                double force = Simulation.G * (mass[node] * bMass) / (distance * distance) / distance;
+                fx += dx * force;
+                fy += dy * force;
+                fz += dz * force;
+                node = next[node];
+            } else if (isLeaf(node)) {
+                for (int i = bodyStart[node]; i < bodyEnd[node]; i++) {
+                    int other = order[i];
+                    if (other != index) {
+                        dx = store.x[other] - bx;
+                        dy = store.y[other] - by;
+                        dz = store.z[other] - bz;
+                        distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+                        double force = Simulation.G * (store.mass[other] * bMass) / (distance * distance) / distance;
+                        fx += dx * force;
+                        fy += dy * force;
+                        fz += dz * force;
+                    }
+                }
+                node = next[node];
+            } else {
+                node++;
+            }
+        }
+
+        store.fx[index] = fx;
+        store.fy[index] = fy;
+        store.fz[index] = fz;
+        Metrics.METRICS.nodesVisited.add(visited);
+        Metrics.METRICS.forceCalculations.increment();
+    }
+
+    // calculates the forces of the bodies in [start, end) of 'order', split into ranges for the pool
+    private class ForceTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+
+        private ForceTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= BODIES_PER_TASK) {
+                for (int i = start; i < end; i++) {
+                    calculateForce(i);
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new ForceTask(start, middle), new ForceTask(middle, end));
+            }
+        }
+    }
+
+    // calculates the gravitational force exerted on every body in this octree
+    public void calculateForces() {
+        if (Simulation.PARALLELISM > 1) {
+            Simulation.pool().invoke(new ForceTask(0, size));
+        } else {
+            for (int i = 0; i < size; i++) {
+                calculateForce(i);
+            }
+        }
+    }
+
+    // calculates the gravitational force exerted on every body in this octree and moves them accordingly
+    public void simulate() {
+        calculateForces();
+        for (int i = 0; i < size; i++) {
+            store.move(order[i]);
+        }
+    }
+
+    // adds all bodies of this octree, and the octants of the leaves if DRAW_OCTANTS, to the snapshot.
+    // Octants smaller than the level of detail of the snapshot are added as one body.
+    public void snapshot(Snapshot snapshot) {
+        int node = 0;
+        while (node < nodeCount) {
+            if (isLeaf(node)) {
+                for (int i = bodyStart[node]; i < bodyEnd[node]; i++) {
+                    int index = order[i];
+                    snapshot.addBody(store.x[index], store.y[index], store.radius[index], store.color[index]);
+                }
+                if (Simulation.DRAW_OCTANTS) {
+                    addLeafOctant(node, snapshot);
+                }
+                node++;
+            } else if (lengths[level[node]] < snapshot.lodLength) {
+                snapshot.addAggregate(massCenterX[node], massCenterY[node], mass[node], lengths[level[node]]);
+                node = next[node];
+            } else {
+                node++;
+            }
+        }
+    }
+
+    // adds the octant of a leaf to the snapshot, it is derived from the key of its first body
+    private void addLeafOctant(int node, Snapshot snapshot) {
+        long key = keys[bodyStart[node]] >>> 3 * (LEVELS - level[node]);
+        double length = lengths[level[node]];
+        long kx = 0;
+        long ky = 0;
+        for (int l = 0; l < level[node]; l++) {
+            kx |= (key >>> 3 * l & 1) << l;
+            ky |= (key >>> 3 * l + 1 & 1) << l;
+        }
+        snapshot.addOctant(octant.getX() + kx * length, octant.getY() + ky * length, length);
+    }
+
+    // returns the number of bodies this octree contains
+    public int size() {
+        return size;
+    }
+
+    // returns the depth of this octree (0 if the root is a leaf)
+    public int depth() {
+        int depth = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            depth = Math.max(depth, level[node]);
+        }
+        return depth;
+    }
+
+    // returns the number of leaves of this octree
+    public int leafCount() {
+        int leaves = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (isLeaf(node)) {
+                leaves++;
+            }
+        }
+        return leaves;
+    }
+
+    // returns the number of (non-empty) nodes of this octree
+    public int nodeCount() {
+        return nodeCount;
+    }
+}
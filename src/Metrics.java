@@ -0,0 +1,155 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters describing the workload of the simulation, together with the phase timings of all stop
+// watches. Everything is exposed as MBeans (domain "EP2Planets", e.g. in jconsole), and summary()
+// returns a line with the tail latencies and the counters since the last summary.
+public class Metrics implements MetricsMBean {
+
+    private static final String DOMAIN = "EP2Planets";
+
+    public static final Metrics METRICS = new Metrics();
+
+    // counters, they may be increased by several threads at once
+    public final LongAdder iterations = new LongAdder();
+    public final LongAdder nodesVisited = new LongAdder(); // nodes of the octree visited to calculate forces
+    public final LongAdder forceCalculations = new LongAdder(); // bodies whose force was calculated by traversal
+    public final LongAdder bodiesDropped = new LongAdder(); // bodies that left the root octant
+    public final LongAdder bodiesMerged = new LongAdder(); // bodies removed by merging them into others
+    public final LongAdder framesDropped = new LongAdder(); // frames not drawn because the renderer was busy
+    public final LongAdder trajectoryDropped = new LongAdder(); // iterations not recorded because the writer was busy
+    public final LongAdder interactionLists = new LongAdder(); // times the interaction lists were made (see InteractionListEngine)
+
+    // shape of the octree, set by the simulation thread from time to time (see setTreeShape)
+    private volatile int treeDepth;
+    private volatile int leafCount;
+    private volatile int bodiesOutside; // bodies outside of the section at the last build of the octree
+
+    private final List<StopWatch> stopWatches = new CopyOnWriteArrayList<>();
+
+    // values at the time of the last summary
+    private long lastNodesVisited;
+    private long lastForceCalculations;
+
+    static {
+        register("type=Workload", METRICS);
+    }
+
+    private Metrics() {
+    }
+
+    // adds the stop watch to the summary and registers it as MBean
+    public void register(StopWatch stopWatch) {
+        stopWatches.add(stopWatch);
+        register("type=Phase,name=" + ObjectName.quote(stopWatch.getName()), stopWatch);
+    }
+
+    private static void register(String name, Object mBean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DOMAIN + ":" + name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(mBean, objectName);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void setBodiesOutside(int bodies) {
+        bodiesOutside = bodies;
+    }
+
+    public void setTreeShape(int depth, int leaves) {
+        treeDepth = depth;
+        leafCount = leaves;
+    }
+
+    @Override
+    public long getIterations() {
+        return iterations.sum();
+    }
+
+    @Override
+    public double getNodesVisitedPerBody() {
+        long calculations = forceCalculations.sum();
+        return calculations == 0 ? 0 : (double) nodesVisited.sum() / calculations;
+    }
+
+    @Override
+    public long getForceCalculations() {
+        return forceCalculations.sum();
+    }
+
+    @Override
+    public int getTreeDepth() {
+        return treeDepth;
+    }
+
+    @Override
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    @Override
+    public long getBodiesDropped() {
+        return bodiesDropped.sum();
+    }
+
+    @Override
+    public int getBodiesOutside() {
+        return bodiesOutside;
+    }
+
+    @Override
+    public long getBodiesMerged() {
+        return bodiesMerged.sum();
+    }
+
+    @Override
+    public long getFramesDropped() {
+        return framesDropped.sum();
+    }
+
+    @Override
+    public long getTrajectoryDropped() {
+        return trajectoryDropped.sum();
+    }
+
+    @Override
+    public long getInteractionLists() {
+        return interactionLists.sum();
+    }
+
+    @Override
+    public String getSummary() {
+        return summary(getNodesVisitedPerBody());
+    }
+
+    // returns a summary line like getSummary, but with the nodes visited per body since the last call
+    public synchronized String summary() {
+        long visited = nodesVisited.sum();
+        long calculations = forceCalculations.sum();
+        double perBody = calculations == lastForceCalculations ? 0
+                : (double) (visited - lastNodesVisited) / (calculations - lastForceCalculations);
+        lastNodesVisited = visited;
+        lastForceCalculations = calculations;
+        return summary(perBody);
+    }
+
+    private String summary(double nodesVisitedPerBody) {
+        StringBuilder s = new StringBuilder();
+        for (StopWatch stopWatch : stopWatches) {
+            s.append(String.format("%s p50 %.2f p99 %.2f max %.2f ms | ", stopWatch.getName(),
+                    stopWatch.getP50Millis(), stopWatch.getP99Millis(), stopWatch.getMaxMillis()));
+        }
+        s.append(String.format("nodes/body %.1f | depth %d | leaves %d | outside %d | dropped %d | frames dropped %d",
+                nodesVisitedPerBody, treeDepth, leafCount, bodiesOutside, getBodiesDropped(), getFramesDropped()));
+        return s.toString();
+    }
+}
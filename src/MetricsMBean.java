@@ -0,0 +1,27 @@
+// Management interface of the workload counters of the simulation, see Metrics.
+public interface MetricsMBean {
+
+    long getIterations();
+
+    double getNodesVisitedPerBody();
+
+    long getForceCalculations();
+
+    int getTreeDepth();
+
+    int getLeafCount();
+
+    long getBodiesDropped();
+
+    int getBodiesOutside();
+
+    long getBodiesMerged();
+
+    long getFramesDropped();
+
+    long getTrajectoryDropped();
+
+    long getInteractionLists();
+
+    String getSummary();
+}
@@ -1,16 +1,18 @@
 import codedraw.CodeDraw;
 
-import java.awt.*;
+import java.util.Arrays;
 
 public class Octant {
 
-    private final double x;
-    private final double y;
-    private final double z;
-    private final double length;
+    private double x;
+    private double y;
+    private double z;
+    private double length;
 
     private double mass;
     private Vector3 massCenter;
+    private double[] quadrupole; // traceless quadrupole moment around the mass center: xx, xy, xz, yy, yz, zz
+    private double[] local; // local expansion of the field around the mass center, see DualTreeEngine
 
     public Octant(double x, double y, double z, double length) {
         this.x = x;
@@ -19,6 +21,21 @@ public class Octant {
         this.length = length;
     }
 
+    // moves this octant to the corner [x, y, z] with the specified length and sets its mass and quadrupole
+    // moment to 0 (used by OctreeArena). The mass center vector and the arrays of the moments are kept to
+    // be reused. (without BULK_AGGREGATION nothing sets the moments again, they must not be left from
+    // another octree)
+    void reset(double x, double y, double z, double length) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.length = length;
+        mass = 0;
+        if (quadrupole != null) {
+            Arrays.fill(quadrupole, 0);
+        }
+    }
+
     public double getX() {
         return x;
     }
@@ -43,6 +60,22 @@ public class Octant {
         return this.mass;
     }
 
+    public double[] getQuadrupole() {
+        return this.quadrupole;
+    }
+
+    public void setQuadrupole(double[] quadrupole) {
+        this.quadrupole = quadrupole;
+    }
+
+    public double[] getLocal() {
+        return this.local;
+    }
+
+    public void setLocal(double[] local) {
+        this.local = local;
+    }
+
     public void setMass(double mass) {
         this.mass = mass;
     }
@@ -52,19 +85,25 @@ public class Octant {
     }
 
     public boolean contains(Vector3 massCenter) {
-        return massCenter.x >= x && massCenter.x < (x + length) &&
-                massCenter.y >= y && massCenter.y < (y + length) &&
-                massCenter.z >= z && massCenter.z < (z + length);
-    }
-
-    public void draw(CodeDraw cd) {
-        if (Simulation.DRAW_OCTANTS) {
-            SpaceDraw.massToColor(mass);
-            cd.setLineWidth(0.1);
-            cd.drawSquare(cd.getWidth() * (x + Simulation.SECTION_SIZE / 2) / Simulation.SECTION_SIZE,
-                    cd.getWidth() * (y + Simulation.SECTION_SIZE / 2) / Simulation.SECTION_SIZE,
-                    cd.getWidth() * length / (Simulation.SECTION_SIZE / 2));
-        }
+        return contains(massCenter.x, massCenter.y, massCenter.z);
+    }
+
+    public boolean contains(Body b) {
+        return contains(b.x(), b.y(), b.z());
+    }
+
+    public boolean contains(double x, double y, double z) {
+        return x >= this.x && x < (this.x + length) &&
+                y >= this.y && y < (this.y + length) &&
+                z >= this.z && z < (this.z + length);
+    }
+
+    // draws the outline of an octant with the corner (x,y) and the specified length
+    public static void draw(CodeDraw cd, double x, double y, double length) {
+        cd.setLineWidth(0.1);
+        cd.drawSquare(cd.getWidth() * (x + Simulation.SECTION_SIZE / 2) / Simulation.SECTION_SIZE,
+                cd.getWidth() * (y + Simulation.SECTION_SIZE / 2) / Simulation.SECTION_SIZE,
+                cd.getWidth() * length / (Simulation.SECTION_SIZE / 2));
     }
 
     @Override
@@ -1,33 +1,91 @@
-import codedraw.CodeDraw;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class Octree {
 
+    // subtrees up to this depth are handed to the pool as separate tasks when calculating forces in parallel
+    private static final int FORK_DEPTH = 3;
+
     private final Octant octant;
-    private Body body;
+    private Body[] bodies; // bodies of a leaf, up to Simulation.LEAF_CAPACITY (null until the first one is added)
+    private int bodyCount;
     private final Octree[] children = new Octree[8];
     private boolean isDivided;
+    private OctreeArena arena; // the children are taken from it, null if they are created
 
     public Octree(Octant octant) {
+        this(octant, null);
+    }
+
+    Octree(Octant octant, OctreeArena arena) {
         this.octant = octant;
+        this.arena = arena;
+        isDivided = false;
+    }
+
+    // returns the arena of the nodes of this octree, or null
+    public OctreeArena getArena() {
+        return arena;
+    }
+
+    // takes the children of this octree from another arena (see OctreeBuilder)
+    void setArena(OctreeArena arena) {
+        this.arena = arena;
+    }
+
+    // empties this node and moves it to another octant, so it can be used again by 'arena'
+    void reset(double x, double y, double z, double length, OctreeArena arena) {
+        this.arena = arena;
+        octant.reset(x, y, z, length);
+        clearBodies();
+        Arrays.fill(children, null);
         isDivided = false;
     }
 
+    public Octant getOctant() {
+        return octant;
+    }
+
+    // returns the number of bodies of this octree (0 if it is divided)
+    public int getBodyCount() {
+        return bodyCount;
+    }
+
+    // returns body i of this leaf, i < getBodyCount()
+    public Body getBody(int i) {
+        return bodies[i];
+    }
+
+    public boolean isDivided() {
+        return isDivided;
+    }
+
+    // returns the children of this octree (only if it is divided)
+    public Octree[] getChildren() {
+        return children;
+    }
+
     // adds body b to this octree
     public void add(Body b) {
-        if (octant.contains(b.massCenter())) {
-            if (body == null && !isDivided) {
-                body = b;
+        if (octant.contains(b)) {
+            if (!isDivided && bodyCount < Simulation.LEAF_CAPACITY) {
+                keep(b);
                 octant.setMass(this.mass());
                 octant.setMassCenter(this.massCenter());
             } else {
                 if (!isDivided) {
                     divide();
                     for (Octree child : children) {
-                        child.add(body);
+                        for (int i = 0; i < bodyCount; i++) {
+                            child.add(bodies[i]);
+                        }
                         child.octant.setMass(child.mass());
                         child.octant.setMassCenter(child.massCenter());
                     }
-                    body = null;
+                    clearBodies();
                 }
                 for (Octree child : children) {
                     child.add(b);
@@ -36,94 +94,272 @@ public class Octree {
         }
     }
 
-    // adds body b to this octree and merges it if necessary
-    public void addMerge(Body b) {
-        if (octant.contains(b.massCenter())) {
-            if (body == null && !isDivided) {
-                body = b;
-                octant.setMass(this.mass());
-                octant.setMassCenter(this.massCenter());
+    // adds body b to this octree without setting the mass and mass center of the octants.
+    // (call aggregate() once all bodies are inserted)
+    public void insert(Body b) {
+        if (octant.contains(b)) {
+            if (!isDivided && bodyCount < Simulation.LEAF_CAPACITY) {
+                keep(b);
             } else {
                 if (!isDivided) {
-                    if (body.distanceTo(b) < (body.radius() + b.radius())) {
-                        body = body.merge(b);
-                        octant.setMass(this.mass());
-                        octant.setMassCenter(this.massCenter());
-                    } else {
-                        divide();
-                        for (Octree child : children) {
-                            child.addMerge(body);
-                            child.octant.setMass(child.mass());
-                            child.octant.setMassCenter(child.massCenter());
+                    divide();
+                    for (Octree child : children) {
+                        for (int i = 0; i < bodyCount; i++) {
+                            child.insert(bodies[i]);
                         }
-                        body = null;
                     }
+                    clearBodies();
                 }
-                if (isDivided) {
-                    for (Octree child : children) {
-                        child.addMerge(b);
-                    }
+                for (Octree child : children) {
+                    child.insert(b);
                 }
             }
         }
     }
 
-    // adds all bodies of tree to this octree and merges them if necessary
-    public void addMergeAllBodies(Octree tree) {
+    // adds b to the bodies of this leaf
+    private void keep(Body b) {
+        if (bodies == null) {
+            bodies = new Body[Math.max(Simulation.LEAF_CAPACITY, 1)];
+        } else if (bodyCount == bodies.length) {
+            bodies = Arrays.copyOf(bodies, 2 * bodyCount);
+        }
+        bodies[bodyCount++] = b;
+    }
+
+    // removes the bodies of this octree when it is divided (the array is kept for reuse by an arena)
+    private void clearBodies() {
+        for (int i = 0; i < bodyCount; i++) {
+            bodies[i] = null;
+        }
+        bodyCount = 0;
+    }
+
+    // adds all bodies of tree to this octree
+    public void addAllBodies(Octree tree) {
         if (tree.isDivided) {
             for (Octree child : tree.children) {
-                this.addMergeAllBodies(child);
+                this.addAllBodies(child);
             }
         } else {
-            if (tree.body != null) {
-                this.addMerge(tree.body);
+            for (int i = 0; i < tree.bodyCount; i++) {
+                if (tree.bodies[i].mass() > 0) { // bodies merged by Collisions have no mass
+                    countIfDropped(tree.bodies[i]);
+                    this.add(tree.bodies[i]);
+                }
             }
         }
     }
 
-    // adds all bodies of tree to this octree
-    public void addAllBodies(Octree tree) {
+    // inserts all bodies of tree to this octree without aggregating
+    public void insertAllBodies(Octree tree) {
         if (tree.isDivided) {
             for (Octree child : tree.children) {
-                this.addAllBodies(child);
+                this.insertAllBodies(child);
             }
         } else {
-            if (tree.body != null) {
-                this.add(tree.body);
+            for (int i = 0; i < tree.bodyCount; i++) {
+                if (tree.bodies[i].mass() > 0) { // bodies merged by Collisions have no mass
+                    countIfDropped(tree.bodies[i]);
+                    this.insert(tree.bodies[i]);
+                }
+            }
+        }
+    }
+
+    // sets the mass and mass center of every octant in this octree in a single post-order pass.
+    // The results are the same as the ones of mass() and massCenter(), but every octree is visited only once.
+    // (the mass center vectors of the octants are reused, so aggregating an octree again after a refit
+    // does not allocate anything)
+    public void aggregate() {
+        if (isDivided) {
+            for (Octree child : children) {
+                child.aggregate();
             }
         }
+        aggregateNode();
     }
 
-    // adds all bodies in bodies to this octree
+    // sets the mass and mass center of this octant from its children or its bodies.
+    // (the children have to be aggregated already)
+    void aggregateNode() {
+        double mass = 0;
+        Vector3 result = octant.getMassCenter();
+        if (result == null) {
+            result = new Vector3();
+            octant.setMassCenter(result);
+        } else {
+            result.set(0, 0, 0);
+        }
+        if (isDivided) {
+            for (Octree child : children) {
+                mass += child.octant.getMass();
+                result.addScaled(child.octant.getMassCenter(), child.octant.getMass());
+            }
+            result.scale(1 / mass);
+        } else if (bodyCount > 0) {
+            for (int i = 0; i < bodyCount; i++) {
+                mass += bodies[i].mass();
+                result.addScaled(bodies[i].x(), bodies[i].y(), bodies[i].z(), bodies[i].mass());
+            }
+            result.scale(1 / mass);
+        }
+        octant.setMass(mass);
+        if (Simulation.QUADRUPOLE) {
+            aggregateQuadrupole();
+        }
+    }
+
+    // sets the quadrupole moment of this octant from the ones of its children, shifted to the mass center
+    // of this octant. (the children and the mass center of this octant have to be aggregated already)
+    private void aggregateQuadrupole() {
+        double[] q = octant.getQuadrupole();
+        if (q == null) {
+            q = new double[6];
+            octant.setQuadrupole(q);
+        } else {
+            Arrays.fill(q, 0);
+        }
+        if (isDivided) {
+            Vector3 center = octant.getMassCenter();
+            for (Octree child : children) {
+                double m = child.octant.getMass();
+                if (m == 0) {
+                    continue;
+                }
+                double[] childQ = child.octant.getQuadrupole();
+                Vector3 childCenter = child.octant.getMassCenter();
+                double dx = childCenter.x - center.x;
+                double dy = childCenter.y - center.y;
+                double dz = childCenter.z - center.z;
+                double d2 = dx * dx + dy * dy + dz * dz;
+                q[0] += childQ[0] + m * (3 * dx * dx - d2);
+                q[1] += childQ[1] + m * 3 * dx * dy;
+                q[2] += childQ[2] + m * 3 * dx * dz;
+                q[3] += childQ[3] + m * (3 * dy * dy - d2);
+                q[4] += childQ[4] + m * 3 * dy * dz;
+                q[5] += childQ[5] + m * (3 * dz * dz - d2);
+            }
+        } else if (bodyCount > 1) { // a single body has no quadrupole moment
+            Vector3 center = octant.getMassCenter();
+            for (int i = 0; i < bodyCount; i++) {
+                double m = bodies[i].mass();
+                double dx = bodies[i].x() - center.x;
+                double dy = bodies[i].y() - center.y;
+                double dz = bodies[i].z() - center.z;
+                double d2 = dx * dx + dy * dy + dz * dz;
+                q[0] += m * (3 * dx * dx - d2);
+                q[1] += m * 3 * dx * dy;
+                q[2] += m * 3 * dx * dz;
+                q[3] += m * (3 * dy * dy - d2);
+                q[4] += m * 3 * dy * dz;
+                q[5] += m * (3 * dz * dz - d2);
+            }
+        }
+    }
+
+    // updates this octree after the bodies moved, instead of building a new one. Bodies that are still
+    // inside the octant of their leaf stay there, the others are removed and inserted again from the root
+    // (or dropped, if they left the root octant). Afterwards the octree has the same structure as a newly
+    // built one, and the mass and mass center of all octants are aggregated again.
+    // Returns the share of bodies that had to be inserted again.
+    public double refit() {
+        List<Body> escaped = new ArrayList<>();
+        int remaining = removeEscaped(escaped);
+        for (Body b : escaped) {
+            countIfDropped(b);
+            insert(b);
+        }
+        aggregate();
+        return remaining + escaped.size() == 0 ? 0 : (double) escaped.size() / (remaining + escaped.size());
+    }
+
+    // removes all bodies that left the octant of their leaf and adds them to escaped. Octrees that
+    // contain at most LEAF_CAPACITY bodies afterwards become leaves again. Returns the number of remaining bodies.
+    private int removeEscaped(List<Body> escaped) {
+        if (isDivided) {
+            int count = 0;
+            for (Octree child : children) {
+                count += child.removeEscaped(escaped);
+            }
+            if (count <= Simulation.LEAF_CAPACITY) {
+                for (int i = 0; i < children.length; i++) {
+                    for (int j = 0; j < children[i].bodyCount; j++) {
+                        keep(children[i].bodies[j]);
+                    }
+                    children[i] = null;
+                }
+                isDivided = false;
+            }
+            return count;
+        }
+        int count = 0;
+        for (int i = 0; i < bodyCount; i++) {
+            if (octant.contains(bodies[i])) {
+                bodies[count++] = bodies[i];
+            } else {
+                escaped.add(bodies[i]);
+            }
+        }
+        for (int i = count; i < bodyCount; i++) {
+            bodies[i] = null;
+        }
+        bodyCount = count;
+        return count;
+    }
+
+    // adds all bodies in bodies to this octree. They are inserted first, and the mass and mass center
+    // of the octants are set once at the end.
     public void addFromArray(Body[] bodies) {
         for (Body body : bodies) {
-            this.add(body);
+            insert(body);
         }
+        aggregate();
     }
 
     // parts the octant of this in 8 more
     public void divide() {
-        children[0] = new Octree(new Octant(octant.getX(), octant.getY(), octant.getZ(), octant.getLength() / 2));
-        children[1] = new Octree(new Octant(octant.getX() + octant.getLength() / 2, octant.getY(), octant.getZ(), octant.getLength() / 2));
-        children[2] = new Octree(new Octant(octant.getX(), octant.getY() + octant.getLength() / 2, octant.getZ(), octant.getLength() / 2));
-        children[3] = new Octree(new Octant(octant.getX() + octant.getLength() / 2, octant.getY() + octant.getLength() / 2, octant.getZ(), octant.getLength() / 2));
-        children[4] = new Octree(new Octant(octant.getX(), octant.getY(), octant.getZ() + octant.getLength() / 2, octant.getLength() / 2));
-        children[5] = new Octree(new Octant(octant.getX() + octant.getLength() / 2, octant.getY(), octant.getZ() + octant.getLength() / 2, octant.getLength() / 2));
-        children[6] = new Octree(new Octant(octant.getX(), octant.getY() + octant.getLength() / 2, octant.getZ() + octant.getLength() / 2, octant.getLength() / 2));
-        children[7] = new Octree(new Octant(octant.getX() + octant.getLength() / 2, octant.getY() + octant.getLength() / 2, octant.getZ() + octant.getLength() / 2, octant.getLength() / 2));
+        double x = octant.getX();
+        double y = octant.getY();
+        double z = octant.getZ();
+        double half = octant.getLength() / 2;
+        children[0] = child(x, y, z, half);
+        children[1] = child(x + half, y, z, half);
+        children[2] = child(x, y + half, z, half);
+        children[3] = child(x + half, y + half, z, half);
+        children[4] = child(x, y, z + half, half);
+        children[5] = child(x + half, y, z + half, half);
+        children[6] = child(x, y + half, z + half, half);
+        children[7] = child(x + half, y + half, z + half, half);
         isDivided = true;
     }
 
-    // draws all bodies of this octree
-    public void draw(CodeDraw cd) {
-        if (isDivided) {
+    // returns an empty child octree, taken from the arena of this octree if it has one
+    private Octree child(double x, double y, double z, double length) {
+        if (arena != null) {
+            return arena.node(x, y, z, length);
+        }
+        return new Octree(new Octant(x, y, z, length));
+    }
+
+    // adds all bodies of this octree, and the octants of the leaves if DRAW_OCTANTS, to the snapshot.
+    // Octants smaller than the level of detail of the snapshot are added as one body.
+    public void snapshot(Snapshot snapshot) {
+        if (isDivided && octant.getLength() < snapshot.lodLength) {
+            if (octant.getMass() > 0) {
+                Vector3 massCenter = octant.getMassCenter();
+                snapshot.addAggregate(massCenter.x, massCenter.y, octant.getMass(), octant.getLength());
+            }
+        } else if (isDivided) {
             for (Octree child : children) {
-                child.draw(cd);
+                child.snapshot(snapshot);
             }
-        } else {
-            if (body != null) {
-                body.draw(cd);
-                octant.draw(cd);
+        } else if (bodyCount > 0) {
+            for (int i = 0; i < bodyCount; i++) {
+                snapshot.addBody(bodies[i].x(), bodies[i].y(), bodies[i].radius(), bodies[i].color());
+            }
+            if (Simulation.DRAW_OCTANTS) {
+                snapshot.addOctant(octant.getX(), octant.getY(), octant.getLength());
             }
         }
     }
@@ -136,8 +372,8 @@ public class Octree {
                 mass += child.mass();
             }
         } else {
-            if (body != null) {
-                mass += body.mass();
+            for (int i = 0; i < bodyCount; i++) {
+                mass += bodies[i].mass();
             }
         }
         return mass;
@@ -151,53 +387,128 @@ public class Octree {
                 result = result.plus(child.massCenter().times(child.mass()));
             }
             result = result.times(1 / mass());
-        } else {
-            if (body != null) {
-                result = result.plus(body.massCenter().times(body.mass()));
-                result = result.times(1 / mass());
+        } else if (bodyCount > 0) {
+            for (int i = 0; i < bodyCount; i++) {
+                result = result.plus(bodies[i].massCenter().times(bodies[i].mass()));
             }
+            result = result.times(1 / mass());
         }
         return result;
     }
 
     // calculates the gravitational force exerted on every body in this octree
     public void calculateForce(Octree tree) {
+        calculateForce(tree, new Vector3());
+    }
+
+    // calculates the gravitational force exerted on every body in this octree,
+    // forceSum is reused to sum up the force of every body
+    private void calculateForce(Octree tree, Vector3 forceSum) {
         if (isDivided) {
             for (Octree child : children) {
-                child.calculateForce(tree);
+                child.calculateForce(tree, forceSum);
             }
         } else {
-            if (body != null) {
-                body.setGravitationalForce(tree.gravitationalForce(body));
+            for (int i = 0; i < bodyCount; i++) {
+                forceSum.set(0, 0, 0);
+                Metrics.METRICS.nodesVisited.add(tree.gravitationalForce(bodies[i], forceSum));
+                Metrics.METRICS.forceCalculations.increment();
+                bodies[i].setGravitationalForce(forceSum);
             }
         }
     }
 
-    // calculates the gravitational force exerted by this octree on body b
+    // calculates the gravitational force exerted on every body in this octree, with the subtrees
+    // distributed over the threads of pool. Every body gets exactly the same force as with calculateForce.
+    public void calculateForce(Octree tree, ForkJoinPool pool) {
+        pool.invoke(new ForceTask(this, tree, 0));
+    }
+
+    // calculates the forces of one subtree, forking its children until FORK_DEPTH is reached
+    private static class ForceTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Octree subtree;
+        private final Octree tree;
+        private final int depth;
+
+        private ForceTask(Octree subtree, Octree tree, int depth) {
+            this.subtree = subtree;
+            this.tree = tree;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (!subtree.isDivided || depth >= FORK_DEPTH) {
+                subtree.calculateForce(tree);
+            } else {
+                ForceTask[] tasks = new ForceTask[subtree.children.length];
+                for (int i = 0; i < tasks.length; i++) {
+                    tasks[i] = new ForceTask(subtree.children[i], tree, depth + 1);
+                }
+                invokeAll(tasks);
+            }
+        }
+    }
+
+    // returns the gravitational force exerted by this octree on body b
     public Vector3 gravitationalForce(Body b) {
+        Vector3 forceSum = new Vector3();
+        gravitationalForce(b, forceSum);
+        return forceSum;
+    }
 
+    // adds the gravitational force exerted by this octree on body b to forceSum and returns the number
+    // of visited nodes. The bodies of a leaf that is not far enough away are summed up directly.
+    // A leaf with several bodies is never approximated for one of its own bodies, its mass center
+    // would include the mass of the body itself. (no objects are allocated while the octree is traversed)
+    public int gravitationalForce(Body b, Vector3 forceSum) {
+        int visited = 0;
         if (isDivided) {
-            Vector3 forceSum = new Vector3();
+            visited += children.length;
             for (Octree child : children) {
-                if (child.octant.getLength() / (b.massCenter().distanceTo(child.octant.getMassCenter())) < Simulation.T) {
-                    Vector3 direction = child.octant.getMassCenter().minus(b.massCenter());
-                    double distance = direction.length();
-                    direction.normalize();
+                Vector3 massCenter = child.octant.getMassCenter();
+                double dx = massCenter.x - b.x();
+                double dy = massCenter.y - b.y();
+                double dz = massCenter.z - b.z();
+                double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+                if (child.octant.getLength() / distance < Simulation.THETA
+                        && !(child.bodyCount > 1 && child.octant.contains(b))) {
                     double force = Simulation.G * (child.octant.getMass() * b.mass()) / (distance * distance);
-                    forceSum = forceSum.plus(direction.times(force));
+                    forceSum.addScaled(dx, dy, dz, force / distance);
+                    if (Simulation.QUADRUPOLE && child.octant.getQuadrupole() != null) {
+                        quadrupoleForce(child.octant.getQuadrupole(), b.mass(), dx, dy, dz, distance, forceSum);
+                    }
                 } else {
-                    forceSum = forceSum.plus(child.gravitationalForce(b));
+                    visited += child.gravitationalForce(b, forceSum);
                 }
             }
-            return forceSum;
         } else {
-            if (body != null && !body.equals(b)) {
-                b.gravitationalForce(body);
+            for (int i = 0; i < bodyCount; i++) {
+                if (!bodies[i].equals(b)) {
+                    b.gravitationalForce(bodies[i], forceSum);
+                }
             }
         }
-        return new Vector3();
+        return visited;
     }
 
+    // adds the quadrupole correction of the force exerted by an octant with the quadrupole moment q on a
+    // body with the specified mass to forceSum. [dx,dy,dz] points from the body to the mass center of the octant.
+    // F = G*m*(5/2*(d.Qd)*d/r^7 - Qd/r^5)
+    private static void quadrupoleForce(double[] q, double mass, double dx, double dy, double dz,
+                                        double distance, Vector3 forceSum) {
+        double qx = q[0] * dx + q[1] * dy + q[2] * dz;
+        double qy = q[1] * dx + q[3] * dy + q[4] * dz;
+        double qz = q[2] * dx + q[4] * dy + q[5] * dz;
+        double dqd = dx * qx + dy * qy + dz * qz;
+        double r2 = distance * distance;
+        double r5 = r2 * r2 * distance;
+        forceSum.addScaled(dx, dy, dz, 2.5 * Simulation.G * mass * dqd / (r5 * r2));
+        forceSum.addScaled(qx, qy, qz, -Simulation.G * mass / r5);
+    }
 
     // move all bodies in this octree according to the force exerted on them
     public void moveBodies() {
@@ -206,15 +517,15 @@ public class Octree {
                 child.moveBodies();
             }
         } else {
-            if (body != null) {
-                body.move(body.getGravitationalForce());
+            for (int i = 0; i < bodyCount; i++) {
+                bodies[i].move();
             }
         }
     }
 
     public void simulate() {
         resetForces();
-        calculateForce(this);
+        Simulation.FORCE_ENGINE.calculateForces(this);
         moveBodies();
     }
 
@@ -224,10 +535,54 @@ public class Octree {
                 child.resetForces();
             }
         } else {
-            if (body != null) {
-                body.setGravitationalForce(new Vector3());
+            for (int i = 0; i < bodyCount; i++) {
+                bodies[i].resetGravitationalForce();
+            }
+        }
+    }
+
+    // adds all bodies of this octree to bodies
+    public void collectBodies(List<Body> bodies) {
+        if (isDivided) {
+            for (Octree child : children) {
+                child.collectBodies(bodies);
+            }
+        } else {
+            for (int i = 0; i < bodyCount; i++) {
+                bodies.add(this.bodies[i]);
+            }
+        }
+    }
+
+    // returns the depth of this octree (0 if it is not divided)
+    public int depth() {
+        int depth = 0;
+        if (isDivided) {
+            for (Octree child : children) {
+                depth = Math.max(depth, child.depth() + 1);
             }
         }
+        return depth;
+    }
+
+    // returns the number of leaves of this octree, including empty ones
+    public int leafCount() {
+        int leaves = 0;
+        if (isDivided) {
+            for (Octree child : children) {
+                leaves += child.leafCount();
+            }
+        } else {
+            leaves = 1;
+        }
+        return leaves;
+    }
+
+    // counts b as dropped if it is outside of the octant of this octree (called on the root)
+    private void countIfDropped(Body b) {
+        if (!octant.contains(b)) {
+            Metrics.METRICS.bodiesDropped.increment();
+        }
     }
 
     // returns the number of bodies this octree contains
@@ -238,9 +593,7 @@ public class Octree {
                 size += size(child);
             }
         } else {
-            if (tree.body != null) {
-                size = 1;
-            }
+            size = tree.bodyCount;
         }
         return size;
     }
@@ -248,8 +601,10 @@ public class Octree {
     @Override
     public String toString() {
         String s = "Bodies: ";
-        if (body != null) {
-            s += body + " ";
+        if (bodyCount > 0) {
+            for (int i = 0; i < bodyCount; i++) {
+                s += bodies[i] + " ";
+            }
         } else {
             s += "null ";
         }
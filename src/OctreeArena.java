@@ -0,0 +1,66 @@
+import java.util.Arrays;
+
+// Nodes of an octree that are kept when the octree is not needed any more and reused when the next
+// one is built (see Simulation.rebuild). The octants of the nodes, their mass center vectors, quadrupole
+// moments and local expansions, and the body arrays of the leaves are reused as well, so once the
+// arena has grown to the size of the octree, building an octree does not allocate anything.
+// Resetting an arena invalidates all nodes taken from it before, so an octree is built from one
+// arena while the previous one, built from another arena, is still in use.
+// An arena must only be used by one thread at a time. Threads building subtrees of the same octree
+// take their nodes from separate parts of the arena (see OctreeBuilder).
+public class OctreeArena {
+
+    private Octree[] nodes = new Octree[0];
+    private int used; // nodes taken since the last reset
+    private OctreeArena[] parts = new OctreeArena[0];
+
+    // makes all nodes available again, the octree built from them must not be used any more
+    public void reset() {
+        used = 0;
+        for (OctreeArena part : parts) {
+            part.reset();
+        }
+    }
+
+    // makes sure that this arena has at least 'count' parts
+    void ensureParts(int count) {
+        if (parts.length < count) {
+            int length = parts.length;
+            parts = Arrays.copyOf(parts, count);
+            for (int i = length; i < count; i++) {
+                parts[i] = new OctreeArena();
+            }
+        }
+    }
+
+    // returns part i of this arena, it is reset together with this arena
+    OctreeArena part(int i) {
+        return parts[i];
+    }
+
+    // returns an empty root for an octree in the specified octant, its nodes are taken from this arena
+    public Octree root(Octant octant) {
+        return node(octant.getX(), octant.getY(), octant.getZ(), octant.getLength());
+    }
+
+    // returns an empty node for the octant with the corner [x, y, z] and the specified length
+    Octree node(double x, double y, double z, double length) {
+        if (used == nodes.length) {
+            nodes = Arrays.copyOf(nodes, Math.max(64, 2 * used));
+        }
+        Octree node = nodes[used];
+        if (node == null) {
+            node = new Octree(new Octant(x, y, z, length), this);
+            nodes[used] = node;
+        } else {
+            node.reset(x, y, z, length, this);
+        }
+        used++;
+        return node;
+    }
+
+    // returns the number of nodes taken since the last reset
+    public int size() {
+        return used;
+    }
+}
@@ -0,0 +1,190 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Builds an octree from the bodies of another one in parallel (see Simulation.rebuild). The bodies are
+// collected in the order insertAllBodies visits them and partitioned by the children of the root that
+// contain them, then by the children of those, down to FORK_DEPTH. Each partition is calculated in
+// parallel by ranges of bodies. The partitions are stable, so every subtree gets its bodies in the same
+// order as with insertAllBodies. The subtrees are built and aggregated by separate tasks, and the upper
+// levels are aggregated once their children are done. The result is exactly the octree of
+// insertAllBodies and aggregate(), including the order of the bodies in the leaves.
+public class OctreeBuilder {
+
+    // levels of the octree that are partitioned, the subtrees below are built by one task each
+    private static final int FORK_DEPTH = 3;
+
+    // number of nodes on the levels up to FORK_DEPTH, every one of them may have its own task
+    private static final int TASKS = ((8 << 3 * FORK_DEPTH) - 1) / 7;
+
+    // number of bodies handled by one task, smaller subtrees are built by inserting their bodies
+    private static final int BODIES_PER_TASK = 4096;
+
+    // a body that is in none of the children of a node (due to rounding at the border of the octants),
+    // it is also left out by insert(). Such bodies are counted as dropped.
+    private static final int LOST = 8;
+
+    private Body[] bodies = new Body[0]; // bodies to add, partitioned by subtree
+    private Body[] buffer = new Body[0];
+    private byte[] child = new byte[0]; // child of the current node containing each body
+    private int count;
+    private OctreeArena arena; // of the octree that is built, null if it has none
+
+    // adds all bodies of tree to the empty octree and aggregates it, with the tasks of the pool.
+    // If the octree has an arena, every task takes the nodes of its subtree from its own part of it.
+    public void build(Octree octree, Octree tree, ForkJoinPool pool) {
+        count = 0;
+        collect(octree.getOctant(), tree);
+        if (buffer.length < count) {
+            buffer = new Body[bodies.length];
+            child = new byte[bodies.length];
+        }
+        arena = octree.getArena();
+        if (arena != null) {
+            arena.ensureParts(TASKS);
+        }
+        pool.invoke(new BuildTask(octree, 0, count, 0, 0));
+    }
+
+    // adds the bodies of tree that are inside the root octant to 'bodies', in the order of insertAllBodies
+    private void collect(Octant root, Octree tree) {
+        if (tree.isDivided()) {
+            for (Octree child : tree.getChildren()) {
+                collect(root, child);
+            }
+        } else {
+            for (int i = 0; i < tree.getBodyCount(); i++) {
+                Body b = tree.getBody(i);
+                if (b.mass() == 0) { // bodies merged by Collisions have no mass
+                    continue;
+                }
+                if (!root.contains(b)) {
+                    Metrics.METRICS.bodiesDropped.increment();
+                    continue;
+                }
+                if (count == bodies.length) {
+                    bodies = Arrays.copyOf(bodies, Math.max(1024, 2 * count));
+                }
+                bodies[count++] = b;
+            }
+        }
+    }
+
+    // builds the subtree of node from the bodies in [start, end)
+    private class BuildTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Octree node;
+        private final int start;
+        private final int end;
+        private final int depth;
+        private final int index; // of the node on the levels up to FORK_DEPTH, the root has 0
+
+        private BuildTask(Octree node, int start, int end, int depth, int index) {
+            this.node = node;
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+            this.index = index;
+        }
+
+        @Override
+        protected void compute() {
+            if (arena != null && index > 0) {
+                node.setArena(arena.part(index - 1));
+            }
+            if (depth >= FORK_DEPTH || end - start <= Math.max(BODIES_PER_TASK, Simulation.LEAF_CAPACITY)) {
+                for (int i = start; i < end; i++) {
+                    node.insert(bodies[i]);
+                }
+                node.aggregate();
+                return;
+            }
+
+            // more bodies than fit into a leaf, so node is divided like by insert()
+            node.divide();
+            Octree[] children = node.getChildren();
+            int chunks = (end - start + BODIES_PER_TASK - 1) / BODIES_PER_TASK;
+            int[] offsets = new int[chunks * (LOST + 1)]; // per chunk and child: number of bodies, then first position
+            new PartitionTask(children, start, end, 0, chunks, offsets, false).compute();
+            int position = start;
+            int[] childStart = new int[LOST + 2];
+            for (int c = 0; c <= LOST; c++) {
+                childStart[c] = position;
+                for (int chunk = 0; chunk < chunks; chunk++) {
+                    int number = offsets[chunk * (LOST + 1) + c];
+                    offsets[chunk * (LOST + 1) + c] = position;
+                    position += number;
+                }
+            }
+            childStart[LOST + 1] = position;
+            if (childStart[LOST + 1] > childStart[LOST]) {
+                Metrics.METRICS.bodiesDropped.add(childStart[LOST + 1] - childStart[LOST]);
+            }
+            new PartitionTask(children, start, end, 0, chunks, offsets, true).compute();
+            System.arraycopy(buffer, start, bodies, start, end - start);
+
+            BuildTask[] tasks = new BuildTask[children.length];
+            for (int c = 0; c < children.length; c++) {
+                tasks[c] = new BuildTask(children[c], childStart[c], childStart[c + 1], depth + 1, 8 * index + c + 1);
+            }
+            invokeAll(tasks);
+            node.aggregateNode();
+        }
+    }
+
+    // finds the child containing each body of the chunks in [firstChunk, lastChunk) and counts the
+    // bodies per chunk and child, or ('scatter') copies every body to its position in 'buffer'
+    private class PartitionTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Octree[] children;
+        private final int start; // of the bodies of the node
+        private final int end;
+        private final int firstChunk;
+        private final int lastChunk;
+        private final int[] offsets;
+        private final boolean scatter;
+
+        private PartitionTask(Octree[] children, int start, int end, int firstChunk, int lastChunk,
+                              int[] offsets, boolean scatter) {
+            this.children = children;
+            this.start = start;
+            this.end = end;
+            this.firstChunk = firstChunk;
+            this.lastChunk = lastChunk;
+            this.offsets = offsets;
+            this.scatter = scatter;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastChunk - firstChunk > 1) {
+                int middle = (firstChunk + lastChunk) >>> 1;
+                invokeAll(new PartitionTask(children, start, end, firstChunk, middle, offsets, scatter),
+                        new PartitionTask(children, start, end, middle, lastChunk, offsets, scatter));
+                return;
+            }
+            int chunkStart = start + firstChunk * BODIES_PER_TASK;
+            int chunkEnd = Math.min(chunkStart + BODIES_PER_TASK, end);
+            int base = firstChunk * (LOST + 1);
+            for (int i = chunkStart; i < chunkEnd; i++) {
+                if (scatter) {
+                    buffer[offsets[base + child[i]]++] = bodies[i];
+                } else {
+                    child[i] = (byte) child(bodies[i]);
+                    offsets[base + child[i]]++;
+                }
+            }
+        }
+
+        // returns the index of the child containing b, in the order of Octree.divide(), or LOST
+        private int child(Body b) {
+            Octant first = children[7].getOctant(); // corner of the upper children
+            int c = (b.x() >= first.getX() ? 1 : 0) | (b.y() >= first.getY() ? 2 : 0) | (b.z() >= first.getZ() ? 4 : 0);
+            return children[c].getOctant().contains(b) ? c : LOST;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+import java.util.SplittableRandom;
+
+// A star cluster in equilibrium following the Plummer model: bodies of equal mass with the density
+// rho(r) ~ (1 + r^2 / a^2)^(-5/2), and isotropic movements drawn from the distribution function of
+// the model (Aarseth, Henon and Wielen 1974). The cluster is always three-dimensional. Bodies are
+// only placed within MAX_RADIUS, which cuts off less than one percent of the mass.
+public class PlummerSphere extends RandomConditions {
+
+    private static final double SCALE_RADIUS = Simulation.SECTION_SIZE / 40; // a
+    private static final double MAX_RADIUS = 0.45 * Simulation.SECTION_SIZE;
+
+    public PlummerSphere(long seed) {
+        super(seed);
+    }
+
+    @Override
+    protected void create(BodyStore store, int i, int count, SplittableRandom random) {
+        double a = SCALE_RADIUS;
+        double r;
+        do {
+            r = a / Math.sqrt(Math.pow(random.nextDouble(), -2.0 / 3) - 1);
+        } while (r > MAX_RADIUS);
+
+        // speed as fraction q of the escape velocity, by rejection from g(q) = q^2 (1 - q^2)^(7/2)
+        double q;
+        do {
+            q = random.nextDouble();
+        } while (0.1 * random.nextDouble() > q * q * Math.pow(1 - q * q, 3.5));
+        double escapeVelocity = Math.sqrt(2 * Simulation.G * Simulation.OVERALL_SYSTEM_MASS / a)
+                * Math.pow(1 + r * r / (a * a), -0.25);
+        double v = q * escapeVelocity;
+
+        double cosTheta = 2 * random.nextDouble() - 1;
+        double sinTheta = Math.sqrt(1 - cosTheta * cosTheta);
+        double phi = 2 * Math.PI * random.nextDouble();
+        double vCosTheta = 2 * random.nextDouble() - 1;
+        double vSinTheta = Math.sqrt(1 - vCosTheta * vCosTheta);
+        double vPhi = 2 * Math.PI * random.nextDouble();
+
+        store.set(i, Simulation.OVERALL_SYSTEM_MASS / count,
+                r * sinTheta * Math.cos(phi), r * sinTheta * Math.sin(phi), r * cosTheta,
+                v * vSinTheta * Math.cos(vPhi), v * vSinTheta * Math.sin(vPhi), v * vCosTheta);
+    }
+}
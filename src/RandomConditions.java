@@ -0,0 +1,78 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.RecursiveAction;
+
+// Base class of initial conditions whose bodies are created independently of each other from random
+// numbers. The bodies are created in parallel in blocks of BLOCK_SIZE, every block with its own random
+// generator split from one seeded generator, so the bodies only depend on the seed and not on the
+// number of threads.
+public abstract class RandomConditions implements InitialConditions {
+
+    private static final int BLOCK_SIZE = 4096;
+
+    private final long seed;
+
+    protected RandomConditions(long seed) {
+        this.seed = seed;
+    }
+
+    @Override
+    public BodyStore createBodies(int count) {
+        BodyStore store = new BodyStore(count);
+        SplittableRandom random = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[(count + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        for (int block = 0; block < randoms.length; block++) {
+            randoms[block] = random.split();
+        }
+
+        if (Simulation.PARALLELISM > 1) {
+            Simulation.pool().invoke(new BlockTask(store, count, randoms, 0, randoms.length));
+        } else {
+            for (int block = 0; block < randoms.length; block++) {
+                createBlock(store, count, randoms[block], block);
+            }
+        }
+        store.addFilled(count);
+        return store;
+    }
+
+    private void createBlock(BodyStore store, int count, SplittableRandom random, int block) {
+        for (int i = block * BLOCK_SIZE; i < Math.min((block + 1) * BLOCK_SIZE, count); i++) {
+            create(store, i, count, random);
+        }
+    }
+
+    // sets mass, position and movement of body i of count in the store (with BodyStore.set)
+    protected abstract void create(BodyStore store, int i, int count, SplittableRandom random);
+
+    // creates the blocks in [start, end)
+    private class BlockTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BodyStore store;
+        private final int count;
+        private final SplittableRandom[] randoms;
+        private final int start;
+        private final int end;
+
+        private BlockTask(BodyStore store, int count, SplittableRandom[] randoms, int start, int end) {
+            this.store = store;
+            this.count = count;
+            this.randoms = randoms;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= 1) {
+                for (int block = start; block < end; block++) {
+                    createBlock(store, count, randoms[block], block);
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new BlockTask(store, count, randoms, start, middle), new BlockTask(store, count, randoms, middle, end));
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import codedraw.CodeDraw;
+
+import java.awt.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// Shows the bodies of the simulation in a CodeDraw window. All drawing goes through this class,
+// so a headless run (see Simulation.HEADLESS) never loads CodeDraw or AWT.
+// The simulation thread only copies positions, radii and colors into a snapshot and publishes it, a render
+// thread draws it while the simulation already calculates the next iteration. There are two snapshots:
+// one is filled by the simulation, the other one is drawn. When the render thread is too slow, frames
+// are dropped (counted in Metrics), the simulation never waits for it.
+public class Renderer {
+
+    private final CodeDraw cd;
+    private final int width; // of the canvas in pixels
+    private final Thread thread;
+    private final StopWatch rendering = new StopWatch("Rendering");
+
+    private Snapshot back = new Snapshot(); // filled by the simulation thread, null if none is available
+    private final AtomicReference<Snapshot> ready = new AtomicReference<>(); // next snapshot to draw
+    private final BlockingQueue<Snapshot> free = new ArrayBlockingQueue<>(2); // drawn snapshots
+
+    public Renderer() {
+        cd = new CodeDraw();
+        cd.clear(Color.BLACK);
+        width = cd.getWidth();
+        free.add(new Snapshot());
+        thread = new Thread(this::run, "Renderer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // publishes all bodies of the octree as the next frame
+    public void publish(Octree octree) {
+        Snapshot snapshot = nextSnapshot();
+        if (snapshot != null) {
+            octree.snapshot(snapshot);
+            publish(snapshot);
+        }
+    }
+
+    // publishes all bodies of the linear octree as the next frame
+    public void publish(LinearOctree octree) {
+        Snapshot snapshot = nextSnapshot();
+        if (snapshot != null) {
+            octree.snapshot(snapshot);
+            publish(snapshot);
+        }
+    }
+
+    // publishes all bodies of the store that were not removed as the next frame (when there is no octree)
+    public void publish(BodyStore store) {
+        Snapshot snapshot = nextSnapshot();
+        if (snapshot != null) {
+            for (int i = 0; i < store.size(); i++) {
+                if (store.mass[i] > 0) {
+                    snapshot.addBody(store.x[i], store.y[i], store.radius[i], store.color[i]);
+                }
+            }
+            publish(snapshot);
+        }
+    }
+
+    // returns an empty snapshot to fill, or null if both are in use by the render thread (the frame is dropped then)
+    private Snapshot nextSnapshot() {
+        if (back == null) {
+            back = free.poll();
+            if (back == null) {
+                Metrics.METRICS.framesDropped.increment();
+                return null;
+            }
+        }
+        back.clear();
+        back.lodLength = Simulation.LOD_PIXELS * Simulation.SECTION_SIZE / width;
+        return back;
+    }
+
+    private void publish(Snapshot snapshot) {
+        // a snapshot that was not drawn yet is replaced and filled again next time
+        back = ready.getAndSet(snapshot);
+        if (back != null) {
+            Metrics.METRICS.framesDropped.increment();
+        }
+        LockSupport.unpark(thread);
+    }
+
+    // draws the published snapshots (runs on the render thread)
+    private void run() {
+        while (true) {
+            Snapshot snapshot = ready.getAndSet(null);
+            if (snapshot == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            rendering.start();
+            draw(snapshot);
+            rendering.stop();
+            free.offer(snapshot);
+        }
+    }
+
+    private void draw(Snapshot snapshot) {
+        cd.clear(Color.BLACK);
+        int octant = 0;
+        for (int i = 0; i < snapshot.bodies; i++) {
+            cd.setColor(SpaceDraw.color(snapshot.color[i]));
+            Vector3.drawAsFilledCircle(cd, snapshot.x[i], snapshot.y[i], snapshot.radius[i]);
+            for (; octant < snapshot.octants && snapshot.octantBody[octant] == i; octant++) {
+                Octant.draw(cd, snapshot.octantX[octant], snapshot.octantY[octant], snapshot.octantLength[octant]);
+            }
+        }
+        cd.show();
+    }
+}
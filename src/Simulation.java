@@ -1,7 +1,8 @@
-import codedraw.CodeDraw;
-
-import java.awt.*;
-import java.util.Random;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 public class Simulation {
 
@@ -17,114 +18,517 @@ public class Simulation {
 
     // set some system parameters
     public static final double SECTION_SIZE = 2 * AU; // the size of the square region in space
-    public static final int NUMBER_OF_BODIES = 10000;
-    public static final double OVERALL_SYSTEM_MASS = NUMBER_OF_BODIES * SUN_MASS; // kilograms
+    public static int NUMBER_OF_BODIES = 10000;
+    public static double OVERALL_SYSTEM_MASS = NUMBER_OF_BODIES * SUN_MASS; // kilograms
+
+    // creates the bodies at the start: "two-clusters" (the original ones), "plummer", "disk" or "cube",
+    // --load=FILE loads them from a file instead (see BodyFile)
+    public static InitialConditions INITIAL_CONDITIONS = new TwoClusters(2022);
 
-    // threshold
-    public static final int T = 1;
+    // threshold (opening angle theta): an octant is approximated by its mass center if length / distance < THETA
+    public static double THETA = 1;
+
+    // additionally store the quadrupole moment of every octant and use it for approximated forces. Only
+    // Octree.gravitationalForce uses them ("barnes-hut" engine and LEAPFROG), not LINEAR_OCTREE or the
+    // "dual-tree" and "lists" engines. Needs BULK_AGGREGATION, they are calculated by Octree.aggregate.
+    public static boolean QUADRUPOLE = false;
 
     // change visual output for testing
     public static final boolean DRAW_OCTANTS = true;
     public static boolean DRAW_3D = false;
 
-    // merge bodies
+    // level of detail: octants smaller than this number of pixels are drawn as one body at their mass
+    // center instead of their bodies, so the drawing time depends on the size of the canvas and not on
+    // the number of bodies (0 draws every body)
+    public static double LOD_PIXELS = 0;
+
+    // merge bodies that overlap after every iteration (see Collisions)
     public static boolean MERGE_BODIES = false;
 
+    // insert all bodies first and aggregate the mass and mass center of the octants afterwards
+    public static boolean BULK_AGGREGATION = true;
+
+    // interaction lists of the "lists" force engine are kept until a body moved further than this
+    // (--list-margin in AU, see InteractionListEngine). With 0 they are made every iteration, which is
+    // the fastest. A margin makes the lists longer and more accurate, it does not save time.
+    public static double LIST_MARGIN = 0;
+
+    // maximum number of bodies in a leaf of the octree, the forces of the bodies of a leaf are summed up
+    // directly. Larger leaves make the octree flatter with fewer nodes (see "java Benchmark leaves")
+    public static int LEAF_CAPACITY = 16;
+
+    // make the root octant large enough for all bodies whenever the octree is built: the section,
+    // doubled as often as necessary. Otherwise bodies that leave the section are dropped.
+    public static boolean DYNAMIC_BOUNDS = true;
+
+    // update the octree in place after every iteration instead of building a new one. It is still built
+    // from scratch every REBUILD_INTERVAL iterations, and after more than REBUILD_THRESHOLD of the bodies
+    // had to be inserted again. (bodies are not merged while the octree is updated in place)
+    public static boolean REFIT = false;
+    public static int REBUILD_INTERVAL = 50;
+    public static double REBUILD_THRESHOLD = 0.25;
+
+    // calculates the forces on the bodies of the octree, "barnes-hut" (reference), "dual-tree", "lists" or "direct"
+    public static ForceEngine FORCE_ENGINE = new BarnesHutEngine();
+    private static boolean engineSelected = false;
+
+    // below this number of bodies the direct summation is used unless another engine is selected, it is
+    // faster than building and traversing the octree then (measured with "java Benchmark crossover")
+    public static final int DIRECT_SUMMATION_LIMIT = 500;
+
+    // run without a window (and without loading AWT) for STEPS iterations or TIME_BUDGET seconds of
+    // wall-clock time, whatever ends first (0 means no limit), and report the throughput at the end
+    public static boolean HEADLESS = false;
+    public static long STEPS = 0;
+    public static double TIME_BUDGET = 0;
+
+    // print a summary of the metrics (see Metrics) every SUMMARY_INTERVAL iterations
+    public static int SUMMARY_INTERVAL = 100;
+
+    // move the bodies with a kick-drift-kick leapfrog instead of once per second (not with LINEAR_OCTREE or
+    // a selected FORCE_ENGINE, the forces are calculated with Octree.gravitationalForce).
+    // Every iteration advances TIMESTEP seconds, every body takes steps of TIMESTEP / 2^k seconds
+    // (0 <= k <= MAX_RUNG): the longest step not longer than sqrt(STEP_LENGTH / acceleration). Forces are
+    // only calculated for the bodies at the end of their step (see LeapfrogIntegrator)
+    public static boolean LEAPFROG = false;
+    public static double TIMESTEP = 64; // seconds
+    public static int MAX_RUNG = 6;
+    public static double STEP_LENGTH = 1e5; // meters
+
+    // use the pointer-free LinearOctree instead of Octree (it calculates the forces itself, so no FORCE_ENGINE
+    // can be selected)
+    public static boolean LINEAR_OCTREE = false;
+
+    // write the state of the simulation to CHECKPOINT_FILE every CHECKPOINT_INTERVAL iterations (0 never),
+    // RESTART continues the simulation from that file instead of creating new bodies
+    public static int CHECKPOINT_INTERVAL = 0;
+    public static String CHECKPOINT_FILE = "checkpoint.bin";
+    public static boolean RESTART = false;
+
+    // record the positions of the bodies in TRAJECTORY_FILE every TRAJECTORY_INTERVAL iterations (0 never),
+    // of every TRAJECTORY_STRIDE-th body only, with their movements if TRAJECTORY_VELOCITIES and
+    // compressed if TRAJECTORY_COMPRESS (see TrajectoryWriter)
+    public static int TRAJECTORY_INTERVAL = 0;
+    public static String TRAJECTORY_FILE = "trajectory.bin";
+    public static int TRAJECTORY_STRIDE = 1;
+    public static boolean TRAJECTORY_VELOCITIES = false;
+    public static boolean TRAJECTORY_COMPRESS = false;
+
+    // number of threads used to calculate the forces (1 calculates them on the main thread), --parallelism.
+    // The pool is created with it on the first call of pool(), so changing it later has no effect.
+    public static int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static ForkJoinPool pool;
+
+    // nodes of the last two octrees: rebuild() builds the new octree from the arena the old one does not use
+    private static final OctreeArena[] ARENAS = {new OctreeArena(), new OctreeArena()};
+
+    // builds the octrees in parallel if PARALLELISM > 1, the result is the same as with insertAllBodies
+    private static final OctreeBuilder BUILDER = new OctreeBuilder();
+
+    // returns the pool used for parallel work, it is created with PARALLELISM threads on first use
+    public static ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(PARALLELISM);
+        }
+        return pool;
+    }
+
     public static void main(String[] args) {
 
-        CodeDraw cd = new CodeDraw();
-        cd.clear(Color.BLACK);
+        parseArguments(args);
 
-        Octant octant = new Octant(-SECTION_SIZE / 2, -SECTION_SIZE / 2, -SECTION_SIZE / 2, SECTION_SIZE);
-        Octree octree = new Octree(octant);
-        Random random = new Random(2022);
+        Renderer renderer = HEADLESS ? null : new Renderer();
 
-        // add bodies to octree
-        for (int i = 0; i < NUMBER_OF_BODIES; i++) {
+        BodyStore store;
+        double seconds = 0;
 
-            double mass = Math.abs(random.nextGaussian()) * OVERALL_SYSTEM_MASS / NUMBER_OF_BODIES; // kg
+        if (RESTART) {
+            Checkpoint checkpoint = readCheckpoint();
+            store = checkpoint.getStore();
+            seconds = checkpoint.getIteration();
+        } else {
+            store = INITIAL_CONDITIONS.createBodies(NUMBER_OF_BODIES);
+        }
 
-            double massCenterX;
-            double massCenterY;
-            double massCenterZ;
+        if (!engineSelected && store.size() < DIRECT_SUMMATION_LIMIT) {
+            FORCE_ENGINE = new DirectSummationEngine();
+        }
 
-            if (i < NUMBER_OF_BODIES / 2) {
-                massCenterX = 0.2 * random.nextGaussian() * SECTION_SIZE / 4;
-                massCenterY = 0.2 * random.nextGaussian() * SECTION_SIZE / 4;
-                massCenterZ = DRAW_3D ? 0.2 * random.nextGaussian() * SECTION_SIZE / 4 : 0;
-            } else {
-                massCenterX = 0.2 * random.nextGaussian() * SECTION_SIZE * 3/4 ;
-                massCenterY = 0.2 * random.nextGaussian() * SECTION_SIZE * 3/4;
-                massCenterZ = DRAW_3D ? 0.2 * random.nextGaussian() * SECTION_SIZE * 3/4 : 0;
-            }
+        // the direct summation takes the bodies from the store, the octree is not built again then
+        DirectSummationEngine direct = FORCE_ENGINE instanceof DirectSummationEngine && !LINEAR_OCTREE && !LEAPFROG
+                ? (DirectSummationEngine) FORCE_ENGINE : null;
 
-            double currentMovementX = 0 + random.nextGaussian() * 5e7;
-            double currentMovementY = 0 + random.nextGaussian() * 5e7;
-            double currentMovementZ = DRAW_3D ? 0 + random.nextGaussian() * 5e7 : 0;
+        Collisions collisions = new Collisions();
+        if (MERGE_BODIES) {
+            collisions.merge(store);
+        }
 
-            Vector3 massCenter = new Vector3(massCenterX, massCenterY, massCenterZ);
-            Vector3 currentMovement = new Vector3(currentMovementX, currentMovementY, currentMovementZ);
-            Body body = new Body(mass, massCenter, currentMovement);
+        // add bodies to octree (bodies with no mass were removed by a merge), the direct summation needs none
+        Octree octree = null;
+        LinearOctree linearOctree = null;
+        LeapfrogIntegrator leapfrog = null;
+        if (direct == null) {
+            Octant octant = rootOctant(store);
+            octree = new Octree(octant);
+            Body[] bodies = new Body[store.size()];
+            int count = 0;
+            for (int i = 0; i < store.size(); i++) {
+                if (store.mass[i] > 0) {
+                    bodies[count] = new Body(store, i);
+                    if (!octant.contains(bodies[count])) {
+                        Metrics.METRICS.bodiesDropped.increment();
+                    }
+                    count++;
+                }
+            }
+            bodies = Arrays.copyOf(bodies, count);
 
-            if (MERGE_BODIES) {
-                octree.addMerge(body);
+            if (LINEAR_OCTREE) {
+                linearOctree = new LinearOctree(octant, store);
+                linearOctree.addAllBodies();
+            } else if (BULK_AGGREGATION) {
+                octree.addFromArray(bodies);
             } else {
-                octree.add(body);
+                for (Body body : bodies) {
+                    octree.add(body);
+                }
+            }
+            if (LEAPFROG && !LINEAR_OCTREE) {
+                leapfrog = new LeapfrogIntegrator(store);
             }
         }
 
-        Body blackHole = new Body(100 * SUN_MASS, new Vector3(), new Vector3());
+        //Body blackHole = store.add(100 * SUN_MASS, 0, 0, 0, 0, 0, 0);
         //octree.add(blackHole);
 
-        double seconds = 0;
+        boolean rebuild = false;
 
         StopWatch tree = new StopWatch("Building Tree");
         StopWatch iteration = new StopWatch("Iteration");
         StopWatch forces = new StopWatch("Calculating Forces");
-        StopWatch draw = new StopWatch("Drawing");
+        StopWatch draw = HEADLESS ? null : new StopWatch("Drawing");
+        StopWatch checkpoint = CHECKPOINT_INTERVAL > 0 ? new StopWatch("Checkpoint") : null;
+
+        TrajectoryWriter trajectory = TRAJECTORY_INTERVAL > 0 ? createTrajectory(store) : null;
+
+        long startTime = System.nanoTime();
+        long bodySteps = 0;
 
         // simulation loop
-        while (true) {
+        while ((STEPS == 0 || seconds < STEPS)
+                && (TIME_BUDGET == 0 || System.nanoTime() - startTime < TIME_BUDGET * 1e9)) {
             iteration.start();
 
-            seconds++; // each iteration computes the movement of the celestial bodies within one second.
+            seconds++; // each iteration computes the movement of the celestial bodies within one second (TIMESTEP with LEAPFROG).
 
             forces.start();
 
             // calculate gravitational force for every body in octree and move them according to it
-            octree.simulate();
+            if (LINEAR_OCTREE) {
+                bodySteps += linearOctree.size();
+                linearOctree.simulate();
+            } else if (LEAPFROG) {
+                bodySteps += octree.size(octree);
+                octree = leapfrog.step(octree);
+            } else if (direct != null) {
+                direct.calculateForces(store);
+                bodySteps += direct.size();
+                store.moveBodies();
+            } else {
+                bodySteps += octree.size(octree);
+                octree.simulate();
+            }
 
             forces.stop();
 
             tree.start();
 
+            // merge overlapping bodies, the merged ones are left out when the octree is built again
+            int merged = MERGE_BODIES ? collisions.merge(store) : 0;
+
             // update octree
-            Octree newOctree = new Octree(octant);
-            if (MERGE_BODIES) {
-                newOctree.addMergeAllBodies(octree);
+            if (LINEAR_OCTREE && merged > 0) {
+                linearOctree.setOctant(rootOctant(store));
+                linearOctree.addAllBodies();
+            } else if (LINEAR_OCTREE) {
+                linearOctree.setOctant(rootOctant(store));
+                linearOctree.rebuild();
+            } else if (LEAPFROG && merged == 0) {
+                // the integrator already built the octree for the new positions
+            } else if (direct != null) {
+                // no octree needed, merged bodies have no mass and are left out by the direct summation
             } else {
-                newOctree.addAllBodies(octree);
+                Octant octant = rootOctant(store);
+                if (REFIT && !MERGE_BODIES && !rebuild && seconds % REBUILD_INTERVAL != 0
+                        && octant.getLength() == octree.getOctant().getLength()) {
+                    rebuild = octree.refit() > REBUILD_THRESHOLD;
+                } else {
+                    octree = rebuild(octree, octant);
+                    rebuild = false;
+                }
             }
-            octree = newOctree;
 
             tree.stop();
 
-            draw.start();
+            if (!HEADLESS) {
+                draw.start();
 
-            // show all movements in the canvas
-            cd.clear(Color.BLACK);
-            octree.draw(cd);
-            // show new positions
-            cd.show();
+                // publish the new positions, they are shown in the canvas by the render thread
+                if (LINEAR_OCTREE) {
+                    renderer.publish(linearOctree);
+                } else if (direct != null) {
+                    renderer.publish(store);
+                } else {
+                    renderer.publish(octree);
+                }
 
-            draw.stop();
+                draw.stop();
+            }
 
             // print number of image
             if (seconds % 10 == 0) {
                 System.out.println("Image: " + (int)seconds);
             }
 
+            if (trajectory != null && seconds % TRAJECTORY_INTERVAL == 0) {
+                trajectory.record((long) seconds, store);
+            }
+
+            if (CHECKPOINT_INTERVAL > 0 && seconds % CHECKPOINT_INTERVAL == 0) {
+                checkpoint.start();
+                writeCheckpoint((long) seconds, store);
+                checkpoint.stop();
+            }
+
             iteration.stop();
+            Metrics.METRICS.iterations.increment();
+
+            if (seconds % SUMMARY_INTERVAL == 0) {
+                if (LINEAR_OCTREE) {
+                    Metrics.METRICS.setTreeShape(linearOctree.depth(), linearOctree.leafCount());
+                } else if (direct != null) {
+                    Metrics.METRICS.setTreeShape(0, 0);
+                } else {
+                    Metrics.METRICS.setTreeShape(octree.depth(), octree.leafCount());
+                }
+                System.out.println(Metrics.METRICS.summary());
+            }
+        }
+
+        if (trajectory != null) {
+            try {
+                trajectory.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        double duration = (System.nanoTime() - startTime) / 1e9;
+        System.out.printf("%d iterations with %d body-steps in %.3f s: %.0f body-steps/s%n",
+                (long) seconds, bodySteps, duration, bodySteps / duration);
+    }
+
+    // sets the parameters given as arguments in the form "--name=value", e.g. "--theta=0.7"
+    private static void parseArguments(String[] args) {
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            String value = option.length > 1 ? option[1] : "true";
+            switch (option[0]) {
+                case "theta":
+                    THETA = Double.parseDouble(value);
+                    break;
+                case "quadrupole":
+                    QUADRUPOLE = Boolean.parseBoolean(value);
+                    break;
+                case "engine":
+                    FORCE_ENGINE = forceEngine(value);
+                    engineSelected = true;
+                    break;
+                case "bodies":
+                    NUMBER_OF_BODIES = Integer.parseInt(value);
+                    OVERALL_SYSTEM_MASS = NUMBER_OF_BODIES * SUN_MASS;
+                    break;
+                case "lod":
+                    LOD_PIXELS = Double.parseDouble(value);
+                    break;
+                case "initial":
+                    INITIAL_CONDITIONS = initialConditions(value);
+                    break;
+                case "load":
+                    INITIAL_CONDITIONS = new BodyFile(value);
+                    break;
+                case "leapfrog":
+                    LEAPFROG = Boolean.parseBoolean(value);
+                    break;
+                case "timestep":
+                    TIMESTEP = Double.parseDouble(value);
+                    break;
+                case "max-rung":
+                    MAX_RUNG = Integer.parseInt(value);
+                    break;
+                case "step-length":
+                    STEP_LENGTH = Double.parseDouble(value);
+                    break;
+                case "merge":
+                    MERGE_BODIES = Boolean.parseBoolean(value);
+                    break;
+                case "list-margin":
+                    LIST_MARGIN = Double.parseDouble(value) * AU;
+                    break;
+                case "leaf-capacity":
+                    LEAF_CAPACITY = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "dynamic-bounds":
+                    DYNAMIC_BOUNDS = Boolean.parseBoolean(value);
+                    break;
+                case "linear":
+                    LINEAR_OCTREE = Boolean.parseBoolean(value);
+                    break;
+                case "refit":
+                    REFIT = Boolean.parseBoolean(value);
+                    break;
+                case "checkpoint":
+                    CHECKPOINT_INTERVAL = Integer.parseInt(value);
+                    break;
+                case "checkpoint-file":
+                    CHECKPOINT_FILE = value;
+                    break;
+                case "restart":
+                    RESTART = Boolean.parseBoolean(value);
+                    break;
+                case "trajectory":
+                    TRAJECTORY_INTERVAL = Integer.parseInt(value);
+                    break;
+                case "trajectory-file":
+                    TRAJECTORY_FILE = value;
+                    break;
+                case "trajectory-stride":
+                    TRAJECTORY_STRIDE = Integer.parseInt(value);
+                    break;
+                case "trajectory-velocities":
+                    TRAJECTORY_VELOCITIES = Boolean.parseBoolean(value);
+                    break;
+                case "trajectory-compress":
+                    TRAJECTORY_COMPRESS = Boolean.parseBoolean(value);
+                    break;
+                case "parallelism":
+                    PARALLELISM = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "headless":
+                    HEADLESS = Boolean.parseBoolean(value);
+                    break;
+                case "steps":
+                    STEPS = Long.parseLong(value);
+                    break;
+                case "time":
+                    TIME_BUDGET = Double.parseDouble(value);
+                    break;
+                default:
+                    System.out.println("unknown argument: " + arg);
+            }
+        }
+        if (LINEAR_OCTREE && LEAPFROG) {
+            throw new IllegalArgumentException("--leapfrog cannot be combined with --linear");
+        }
+        if (engineSelected && (LINEAR_OCTREE || LEAPFROG)) {
+            throw new IllegalArgumentException("--engine cannot be combined with " + (LINEAR_OCTREE ? "--linear" : "--leapfrog")
+                    + ", it calculates the forces itself");
+        }
+        if (QUADRUPOLE && (LINEAR_OCTREE || !BULK_AGGREGATION
+                || FORCE_ENGINE instanceof DualTreeEngine || FORCE_ENGINE instanceof InteractionListEngine)) {
+            System.out.println("--quadrupole is ignored, quadrupole moments are only used by the barnes-hut engine of Octree");
+        }
+    }
+
+    // reads the checkpoint to restart from
+    private static Checkpoint readCheckpoint() {
+        try {
+            Checkpoint checkpoint = Checkpoint.read(Paths.get(CHECKPOINT_FILE));
+            System.out.println("Restarting from " + CHECKPOINT_FILE + " at iteration " + checkpoint.getIteration()
+                    + " with " + checkpoint.getStore().size() + " bodies");
+            return checkpoint;
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot restart from " + CHECKPOINT_FILE, e);
+        }
+    }
+
+    // writes a checkpoint, the simulation continues if that fails
+    private static void writeCheckpoint(long iteration, BodyStore store) {
+        try {
+            Checkpoint.write(Paths.get(CHECKPOINT_FILE), iteration, store);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // creates the trajectory file for the bodies of the store
+    private static TrajectoryWriter createTrajectory(BodyStore store) {
+        try {
+            return new TrajectoryWriter(Paths.get(TRAJECTORY_FILE), store.size(), TRAJECTORY_STRIDE,
+                    TRAJECTORY_VELOCITIES, TRAJECTORY_COMPRESS);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot create " + TRAJECTORY_FILE, e);
+        }
+    }
+
+    // returns the initial conditions with the specified name
+    private static InitialConditions initialConditions(String name) {
+        switch (name) {
+            case "two-clusters":
+                return new TwoClusters(2022);
+            case "plummer":
+                return new PlummerSphere(2022);
+            case "disk":
+                return new DiskGalaxy(2022);
+            case "cube":
+                return new UniformCube(2022);
+            default:
+                throw new IllegalArgumentException("unknown initial conditions: " + name);
+        }
+    }
+
+    // returns the force engine with the specified name
+    private static ForceEngine forceEngine(String name) {
+        switch (name) {
+            case "barnes-hut":
+                return new BarnesHutEngine();
+            case "dual-tree":
+                return new DualTreeEngine();
+            case "direct":
+                return new DirectSummationEngine();
+            case "lists":
+                return new InteractionListEngine();
+            default:
+                throw new IllegalArgumentException("unknown force engine: " + name);
+        }
+    }
+
+    // returns the root octant for the bodies of the store: the section, or a larger one containing all
+    // bodies if DYNAMIC_BOUNDS. Updates the number of bodies outside of the section in Metrics.
+    static Octant rootOctant(BodyStore store) {
+        Bounds bounds = Bounds.of(store);
+        Metrics.METRICS.setBodiesOutside(bounds.getOutside());
+        if (DYNAMIC_BOUNDS) {
+            return bounds.rootOctant();
+        }
+        return new Octant(-SECTION_SIZE / 2, -SECTION_SIZE / 2, -SECTION_SIZE / 2, SECTION_SIZE);
+    }
+
+    // returns a new octree with the root 'octant' containing all bodies of 'octree'. Its nodes are reused
+    // from the octree before 'octree', which must not be used any more.
+    static Octree rebuild(Octree octree, Octant octant) {
+        OctreeArena arena = octree.getArena() == ARENAS[0] ? ARENAS[1] : ARENAS[0];
+        arena.reset();
+        Octree newOctree = arena.root(octant);
+        if (BULK_AGGREGATION && PARALLELISM > 1) {
+            BUILDER.build(newOctree, octree, pool());
+        } else if (BULK_AGGREGATION) {
+            newOctree.insertAllBodies(octree);
+            newOctree.aggregate();
+        } else {
+            newOctree.addAllBodies(octree);
         }
+        return newOctree;
     }
 }
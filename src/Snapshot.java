@@ -0,0 +1,66 @@
+import java.util.Arrays;
+
+// Positions, radii and colors of all bodies (and the octants of the leaves) at one point of the simulation,
+// everything the renderer needs to draw a frame. The arrays are reused, filling a snapshot again does
+// not allocate once they are large enough.
+public class Snapshot {
+
+    // octants smaller than this (the length of LOD_PIXELS pixels) are added as one aggregated body
+    // instead of their bodies, 0 adds all bodies
+    double lodLength;
+
+    int bodies;
+    double[] x = new double[0];
+    double[] y = new double[0];
+    double[] radius = new double[0];
+    int[] color = new int[0]; // index in the palette of SpaceDraw
+
+    int octants;
+    double[] octantX = new double[0];
+    double[] octantY = new double[0];
+    double[] octantLength = new double[0];
+    int[] octantBody = new int[0]; // the octant is drawn after this body, in its color
+
+    // removes all bodies and octants
+    public void clear() {
+        bodies = 0;
+        octants = 0;
+    }
+
+    public void addBody(double x, double y, double radius, int color) {
+        if (bodies == this.x.length) {
+            int capacity = Math.max(2 * bodies, 1024);
+            this.x = Arrays.copyOf(this.x, capacity);
+            this.y = Arrays.copyOf(this.y, capacity);
+            this.radius = Arrays.copyOf(this.radius, capacity);
+            this.color = Arrays.copyOf(this.color, capacity);
+        }
+        this.x[bodies] = x;
+        this.y[bodies] = y;
+        this.radius[bodies] = radius;
+        this.color[bodies] = color;
+        bodies++;
+    }
+
+    // adds the bodies of an octant as one body at their mass center with their overall mass.
+    // (it is not larger than the octant)
+    public void addAggregate(double x, double y, double mass, double length) {
+        addBody(x, y, Math.min(SpaceDraw.massToRadius(mass), length / 2), SpaceDraw.massToColorIndex(mass));
+    }
+
+    // adds an octant, it belongs to the body added last
+    public void addOctant(double x, double y, double length) {
+        if (octants == octantX.length) {
+            int capacity = Math.max(2 * octants, 1024);
+            octantX = Arrays.copyOf(octantX, capacity);
+            octantY = Arrays.copyOf(octantY, capacity);
+            octantLength = Arrays.copyOf(octantLength, capacity);
+            octantBody = Arrays.copyOf(octantBody, capacity);
+        }
+        octantX[octants] = x;
+        octantY[octants] = y;
+        octantLength[octants] = length;
+        octantBody[octants] = bodies - 1;
+        octants++;
+    }
+}
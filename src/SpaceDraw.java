@@ -10,20 +10,46 @@ public class SpaceDraw {
         return Simulation.SUN_RADIUS * (Math.pow(mass / Simulation.SUN_MASS, 0.5));
     }
 
+    // The colors of the stars are quantized to steps of KELVIN_STEP up to MAX_KELVIN (hotter stars
+    // look the same), and taken from a palette that is calculated once.
+    private static final int KELVIN_STEP = 10;
+    private static final int MAX_KELVIN = 40000;
+
     // Returns the approximate color of a celestial body with the specified mass. The color of
     // the body corresponds to the temperature of the body, assuming the relation of mass and
     // temperature of a main sequence star.
     public static Color massToColor(double mass) {
-        Color color;
+        return color(massToColorIndex(mass));
+    }
+
+    // Returns the index of the color of a celestial body with the specified mass in the palette
+    // (see 'color'). Does not need AWT, so it can be used in a headless run.
+    public static int massToColorIndex(double mass) {
         if (mass < Simulation.SUN_MASS / 10) {
             // not a star-like body below this mass
-            color = Color.LIGHT_GRAY;
-        } else {
-            // assume a main sequence star
-            color = SpaceDraw.kelvinToColor((int) (5500 * mass / Simulation.SUN_MASS));
+            return 0;
         }
+        // assume a main sequence star
+        double kelvin = Math.min(5500 * mass / Simulation.SUN_MASS, MAX_KELVIN);
+        return 1 + (int) (kelvin / KELVIN_STEP);
+    }
 
-        return color;
+    // Returns the color with the specified index in the palette.
+    public static Color color(int index) {
+        return Palette.COLORS[index];
+    }
+
+    // The palette is created when the first color is needed.
+    private static class Palette {
+
+        private static final Color[] COLORS = new Color[2 + MAX_KELVIN / KELVIN_STEP];
+
+        static {
+            COLORS[0] = Color.LIGHT_GRAY;
+            for (int i = 1; i < COLORS.length; i++) {
+                COLORS[i] = kelvinToColor((i - 1) * KELVIN_STEP);
+            }
+        }
     }
 
     // Returns the approximate color of temperature 'kelvin'.
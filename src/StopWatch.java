@@ -3,23 +3,64 @@ import com.opencsv.CSVWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class StopWatch {
+// Measures durations in nanoseconds. stop() records the duration in a histogram and puts it into a
+// preallocated ring buffer, a background thread writes the buffered durations to the CSV file of the
+// stop watch in batches. The histogram is available as MBean (see Metrics). When the stop watch is
+// closed (at the latest when the program ends), a summary is printed.
+public class StopWatch implements StopWatchMBean {
+
+    // number of durations that can be buffered, durations are dropped when the buffer is full
+    private static final int BUFFER_SIZE = 1 << 12;
+    private static final long FLUSH_INTERVAL_MS = 100;
+
+    private static final ScheduledExecutorService writerThread = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "StopWatch writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final List<StopWatch> stopWatches = new CopyOnWriteArrayList<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (StopWatch stopWatch : stopWatches) {
+                stopWatch.close();
+            }
+        }));
+    }
 
     private final String name;
     private long start;
-    private long end;
     private long duration;
-    private int counter;
     private File file;
     private FileWriter output;
     private CSVWriter writer;
+    private ScheduledFuture<?> flushing;
+
+    // ring buffer, written by the measuring thread and read by the writer thread
+    private final long[] buffer = new long[BUFFER_SIZE];
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Histogram histogram = new Histogram();
+    private int counter; // number of durations written to the CSV file
 
     public StopWatch(String name) {
         this.name = name;
         counter = 0;
         setup();
+        stopWatches.add(this);
+        Metrics.METRICS.register(this);
+        flushing = writerThread.scheduleAtFixedRate(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
     public void start() {
@@ -27,19 +68,15 @@ public class StopWatch {
     }
 
     public void stop() {
-        end = System.nanoTime();
-        calculateDuration();
-        convertToMs();
-        counter++;
-        writeToCSV();
-    }
-
-    private void calculateDuration() {
-        duration = end - start;
-    }
-
-    private void convertToMs() {
-        duration = TimeUnit.MILLISECONDS.convert(duration, TimeUnit.NANOSECONDS);
+        duration = System.nanoTime() - start;
+        histogram.record(duration);
+        long position = written.get();
+        if (position - read.get() < BUFFER_SIZE) {
+            buffer[(int) (position & (BUFFER_SIZE - 1))] = duration;
+            written.lazySet(position + 1);
+        } else {
+            dropped.incrementAndGet();
+        }
     }
 
     private void setup() {
@@ -55,24 +92,101 @@ public class StopWatch {
     }
 
     private void writeHeader() {
-        String[] header = {"counter", "duration in ms"};
+        String[] header = {"counter", "duration in ns"};
         writer.writeNext(header);
     }
 
-    private void writeToCSV() {
-        String[] data = {Integer.toString(counter), Long.toString(duration)};
-        writer.writeNext(data);
+    // writes all buffered durations to the CSV file (runs on the writer thread)
+    private void flush() {
+        long end = written.get();
+        for (long position = read.get(); position < end; position++) {
+            long d = buffer[(int) (position & (BUFFER_SIZE - 1))];
+            counter++;
+            writer.writeNext(new String[]{Integer.toString(counter), Long.toString(d)});
+        }
+        read.lazySet(end);
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
+    // writes the remaining durations, closes the CSV file and prints a summary
     public void close() {
+        if (!stopWatches.remove(this)) {
+            return;
+        }
+        flushing.cancel(false);
         try {
+            writerThread.submit(this::flush).get();
             writer.close();
-        } catch (IOException e) {
+        } catch (IOException | InterruptedException | ExecutionException e) {
             e.printStackTrace();
         }
+        printSummary();
     }
 
     public void print() {
-        System.out.println(name + " finished in: " + duration + " ms");
+        System.out.println(name + " finished in: " + duration / 1e6 + " ms");
+    }
+
+    // prints minimum, median, 99th percentile and maximum of all durations
+    private void printSummary() {
+        if (histogram.count() == 0) {
+            System.out.println(name + ": no durations measured");
+            return;
+        }
+        System.out.printf("%s: %d durations, min %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms, dropped %d%n",
+                name, histogram.count(), getMinMillis(), getP50Millis(), getP99Millis(), getMaxMillis(), getDropped());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.count();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public double getLastMillis() {
+        return duration / 1e6;
+    }
+
+    @Override
+    public double getMinMillis() {
+        return histogram.min() / 1e6;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return histogram.percentile(50) / 1e6;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return histogram.percentile(90) / 1e6;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return histogram.percentile(99) / 1e6;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return histogram.percentile(99.9) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return histogram.max() / 1e6;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,21 @@
+// Management interface of a StopWatch, see Metrics for the registration. Durations are in milliseconds.
+public interface StopWatchMBean {
+
+    long getCount();
+
+    long getDropped();
+
+    double getLastMillis();
+
+    double getMinMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+}
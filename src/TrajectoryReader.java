@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Reads the chunks of a file written by TrajectoryWriter. The index file is read when the trajectory
+// is opened, afterwards every iteration can be read directly.
+public class TrajectoryReader implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final boolean velocities;
+    private final boolean compressed;
+    private final int stride;
+    private final int bodies;
+
+    private final long[] iterations; // recorded iterations in ascending order
+    private final long[] positions; // positions of their chunks in the file
+
+    public TrajectoryReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        ByteBuffer header = read(0, TrajectoryWriter.HEADER_SIZE);
+        if (header.getInt() != TrajectoryWriter.MAGIC) {
+            throw new IOException(file + " is not a trajectory");
+        }
+        int version = header.getInt();
+        if (version != TrajectoryWriter.VERSION) {
+            throw new IOException(file + " has unsupported version " + version);
+        }
+        int flags = header.getInt();
+        velocities = (flags & TrajectoryWriter.VELOCITIES) != 0;
+        compressed = (flags & TrajectoryWriter.COMPRESSED) != 0;
+        stride = header.getInt();
+        bodies = header.getInt();
+
+        try (FileChannel index = FileChannel.open(TrajectoryWriter.indexFile(file), StandardOpenOption.READ)) {
+            int entries = (int) (index.size() / TrajectoryWriter.INDEX_ENTRY_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocate(entries * TrajectoryWriter.INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && index.read(buffer) >= 0) {
+                // read all entries
+            }
+            buffer.flip();
+            iterations = new long[entries];
+            positions = new long[entries];
+            for (int i = 0; i < entries; i++) {
+                iterations[i] = buffer.getLong();
+                positions[i] = buffer.getLong();
+            }
+        }
+    }
+
+    // returns the recorded iterations in ascending order
+    public long[] getIterations() {
+        return iterations.clone();
+    }
+
+    public boolean hasVelocities() {
+        return velocities;
+    }
+
+    // only every stride-th body of the store was recorded
+    public int getStride() {
+        return stride;
+    }
+
+    public int getBodies() {
+        return bodies;
+    }
+
+    // returns the columns x, y, z (and vx, vy, vz) of the bodies in the specified iteration,
+    // or null if it was not recorded
+    public double[][] read(long iteration) throws IOException {
+        int i = Arrays.binarySearch(iterations, iteration);
+        if (i < 0) {
+            return null;
+        }
+        ByteBuffer chunkHeader = read(positions[i], TrajectoryWriter.CHUNK_HEADER_SIZE);
+        chunkHeader.getLong();
+        int rawLength = chunkHeader.getInt();
+        int storedLength = chunkHeader.getInt();
+        ByteBuffer values = read(positions[i] + TrajectoryWriter.CHUNK_HEADER_SIZE, storedLength);
+
+        if (compressed) {
+            Inflater inflater = new Inflater();
+            byte[] raw = new byte[rawLength];
+            try {
+                inflater.setInput(values.array(), 0, storedLength);
+                if (inflater.inflate(raw) != rawLength) {
+                    throw new IOException("chunk of iteration " + iteration + " is truncated");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("chunk of iteration " + iteration + " is corrupt", e);
+            } finally {
+                inflater.end();
+            }
+            values = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        double[][] columns = new double[velocities ? 6 : 3][bodies];
+        for (double[] column : columns) {
+            values.asDoubleBuffer().get(column);
+            values.position(values.position() + 8 * bodies);
+        }
+        return columns;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of trajectory");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+// Streams the positions (and optionally the movements) of the bodies to a binary file, for every
+// recorded iteration one chunk. Within a chunk the values are stored by column: x of all bodies,
+// then y, z (and vx, vy, vz), little endian, optionally compressed. Only every 'stride'-th slot of the
+// store is written. The file starts with a header (magic number, version, flags, stride, number of
+// bodies), every chunk with the iteration, the uncompressed and the stored length of the values.
+// Iteration and position of every chunk are also appended to an index file (file name + ".idx"), so
+// the chunk of an iteration can be found without reading the whole file (see TrajectoryReader).
+//
+// record() only copies the values into a free buffer, a background thread compresses and writes
+// them. If all buffers are waiting to be written, the iteration is not recorded (counted in Metrics),
+// the simulation never waits for the disk.
+public class TrajectoryWriter {
+
+    static final int MAGIC = 0x45503254; // "EP2T"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 5 * 4;
+    static final int CHUNK_HEADER_SIZE = 8 + 4 + 4;
+    static final int INDEX_ENTRY_SIZE = 8 + 8;
+    static final int VELOCITIES = 1; // flags
+    static final int COMPRESSED = 2;
+
+    // number of buffers, iterations are dropped when all of them are waiting to be written
+    private static final int BUFFERS = 4;
+
+    private final int stride;
+    private final int bodies; // number of bodies written per chunk
+    private final boolean velocities;
+    private final boolean compress;
+
+    private final FileChannel channel;
+    private final FileChannel index;
+    private final Thread thread;
+    private final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(BUFFERS + 1);
+    private final BlockingQueue<Frame> free = new ArrayBlockingQueue<>(BUFFERS);
+    private final Frame end = new Frame(0);
+
+    // used by the writer thread only
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer raw;
+    private final byte[] compressed;
+    private boolean failed;
+    private boolean closed;
+
+    // values of one iteration, waiting to be written
+    private static class Frame {
+
+        private long iteration;
+        private final double[] values;
+
+        private Frame(int length) {
+            values = new double[length];
+        }
+    }
+
+    // creates the file (and its index) for the bodies of a store with 'size' slots
+    public TrajectoryWriter(Path file, int size, int stride, boolean velocities, boolean compress) throws IOException {
+        this.stride = stride;
+        this.bodies = (size + stride - 1) / stride;
+        this.velocities = velocities;
+        this.compress = compress;
+
+        int length = (velocities ? 6 : 3) * bodies;
+        for (int i = 0; i < BUFFERS; i++) {
+            free.add(new Frame(length));
+        }
+        raw = ByteBuffer.allocate(8 * length).order(ByteOrder.LITTLE_ENDIAN);
+        compressed = new byte[compress ? 8 * length + 8 * length / 100 + 64 : 0]; // enough for incompressible values
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        index = FileChannel.open(indexFile(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt((velocities ? VELOCITIES : 0) | (compress ? COMPRESSED : 0))
+                .putInt(stride).putInt(bodies).flip();
+        write(channel, header);
+
+        thread = new Thread(this::run, "Trajectory writer");
+        thread.setDaemon(true);
+        thread.start();
+
+        // the simulation is not ended by the main loop when its window is closed
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+    }
+
+    // returns the path of the index file of a trajectory
+    static Path indexFile(Path file) {
+        return Paths.get(file + ".idx");
+    }
+
+    // hands the positions (and movements) of the bodies in the store over to the writer thread
+    public void record(long iteration, BodyStore store) {
+        Frame frame = free.poll();
+        if (frame == null) {
+            Metrics.METRICS.trajectoryDropped.increment();
+            return;
+        }
+        frame.iteration = iteration;
+        copy(store.x, frame.values, 0);
+        copy(store.y, frame.values, bodies);
+        copy(store.z, frame.values, 2 * bodies);
+        if (velocities) {
+            copy(store.vx, frame.values, 3 * bodies);
+            copy(store.vy, frame.values, 4 * bodies);
+            copy(store.vz, frame.values, 5 * bodies);
+        }
+        queue.add(frame);
+    }
+
+    // copies every stride-th value of source to target, starting at offset
+    private void copy(double[] source, double[] target, int offset) {
+        if (stride == 1) {
+            System.arraycopy(source, 0, target, offset, bodies);
+        } else {
+            for (int i = 0; i < bodies; i++) {
+                target[offset + i] = source[i * stride];
+            }
+        }
+    }
+
+    // writes the remaining iterations and closes the files, does nothing if they are already closed
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(end);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        deflater.end();
+        channel.close();
+        index.close();
+    }
+
+    // writes the recorded iterations (runs on the writer thread)
+    private void run() {
+        while (true) {
+            Frame frame;
+            try {
+                frame = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (frame == end) {
+                return;
+            }
+            if (!failed) {
+                try {
+                    write(frame);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    failed = true;
+                }
+            }
+            free.add(frame);
+        }
+    }
+
+    private void write(Frame frame) throws IOException {
+        raw.clear();
+        raw.asDoubleBuffer().put(frame.values);
+        int rawLength = 8 * frame.values.length;
+
+        ByteBuffer values = raw;
+        int storedLength = rawLength;
+        if (compress) {
+            deflater.reset();
+            deflater.setInput(raw.array(), 0, rawLength);
+            deflater.finish();
+            storedLength = deflater.deflate(compressed);
+            values = ByteBuffer.wrap(compressed);
+        }
+        values.limit(storedLength).position(0);
+
+        long position = channel.position();
+        chunkHeader.clear();
+        chunkHeader.putLong(frame.iteration).putInt(rawLength).putInt(storedLength).flip();
+        write(channel, chunkHeader);
+        write(channel, values);
+
+        indexEntry.clear();
+        indexEntry.putLong(frame.iteration).putLong(position).flip();
+        write(index, indexEntry);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+import java.util.Random;
+
+// The original initial conditions of the simulation: two gaussian clusters around the center, half of
+// the bodies in a small and dense one, the other half in a wider one. The bodies are created one
+// after another with java.util.Random, so they are the same as in all earlier versions.
+public class TwoClusters implements InitialConditions {
+
+    private final long seed;
+
+    public TwoClusters(long seed) {
+        this.seed = seed;
+    }
+
+    @Override
+    public BodyStore createBodies(int count) {
+        BodyStore store = new BodyStore(count);
+        Random random = new Random(seed);
+        double systemMass = Simulation.OVERALL_SYSTEM_MASS;
+        double sectionSize = Simulation.SECTION_SIZE;
+        boolean draw3D = Simulation.DRAW_3D;
+
+        for (int i = 0; i < count; i++) {
+
+            double mass = Math.abs(random.nextGaussian()) * systemMass / count; // kg
+
+            double massCenterX;
+            double massCenterY;
+            double massCenterZ;
+
+            if (i < count / 2) {
+                massCenterX = 0.2 * random.nextGaussian() * sectionSize / 4;
+                massCenterY = 0.2 * random.nextGaussian() * sectionSize / 4;
+                massCenterZ = draw3D ? 0.2 * random.nextGaussian() * sectionSize / 4 : 0;
+            } else {
+                massCenterX = 0.2 * random.nextGaussian() * sectionSize * 3/4 ;
+                massCenterY = 0.2 * random.nextGaussian() * sectionSize * 3/4;
+                massCenterZ = draw3D ? 0.2 * random.nextGaussian() * sectionSize * 3/4 : 0;
+            }
+
+            double currentMovementX = 0 + random.nextGaussian() * 5e7;
+            double currentMovementY = 0 + random.nextGaussian() * 5e7;
+            double currentMovementZ = draw3D ? 0 + random.nextGaussian() * 5e7 : 0;
+
+            store.add(mass, massCenterX, massCenterY, massCenterZ,
+                    currentMovementX, currentMovementY, currentMovementZ);
+        }
+        return store;
+    }
+}
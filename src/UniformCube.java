@@ -0,0 +1,21 @@
+import java.util.SplittableRandom;
+
+// Bodies uniformly distributed in a cube (a square if not DRAW_3D) with half the length of the
+// section, with gaussian masses and movements like the original clusters.
+public class UniformCube extends RandomConditions {
+
+    public UniformCube(long seed) {
+        super(seed);
+    }
+
+    @Override
+    protected void create(BodyStore store, int i, int count, SplittableRandom random) {
+        double length = Simulation.SECTION_SIZE / 2;
+        double mass = Math.abs(random.nextGaussian()) * Simulation.OVERALL_SYSTEM_MASS / count;
+        double x = (random.nextDouble() - 0.5) * length;
+        double y = (random.nextDouble() - 0.5) * length;
+        double z = Simulation.DRAW_3D ? (random.nextDouble() - 0.5) * length : 0;
+        store.set(i, mass, x, y, z, random.nextGaussian() * 5e7, random.nextGaussian() * 5e7,
+                Simulation.DRAW_3D ? random.nextGaussian() * 5e7 : 0);
+    }
+}
@@ -34,17 +34,61 @@ public class Vector3 {
         return new Vector3(this.x - v.x, this.y - v.y, this.z - v.z);
     }
 
+    // Adds vector 'v' to this vector. (in place, no new vector is created)
+    public void add(Vector3 v) {
+        this.x += v.x;
+        this.y += v.y;
+        this.z += v.z;
+    }
+
+    // Multiplies this vector by 'd'. (in place)
+    public void scale(double d) {
+        this.x *= d;
+        this.y *= d;
+        this.z *= d;
+    }
+
+    // Adds the product of vector 'v' and 'd' to this vector. (in place)
+    public void addScaled(Vector3 v, double d) {
+        addScaled(v.x, v.y, v.z, d);
+    }
+
+    // Adds the product of the vector [x,y,z] and 'd' to this vector. (in place)
+    public void addScaled(double x, double y, double z, double d) {
+        this.x += x * d;
+        this.y += y * d;
+        this.z += z * d;
+    }
+
+    // Sets the coordinates of this vector.
+    public void set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    // Returns the squared Euclidean distance of this vector to the point [x,y,z].
+    public double distanceSquaredTo(double x, double y, double z) {
+        double dx = this.x - x;
+        double dy = this.y - y;
+        double dz = this.z - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    // Returns the squared Euclidean distance of this vector to the specified vector 'v'.
+    public double distanceSquaredTo(Vector3 v) {
+        return distanceSquaredTo(v.x, v.y, v.z);
+    }
+
     // Returns the Euclidean distance of this vector
     // to the specified vector 'v'.
     public double distanceTo(Vector3 v) {
-        Vector3 resultV = this.minus(v);
-        double result = resultV.x * resultV.x + resultV.y * resultV.y + resultV.z * resultV.z;
-        return Math.sqrt(result);
+        return Math.sqrt(distanceSquaredTo(v));
     }
 
     // Returns the length (norm) of this vector.
     public double length() {
-        return this.distanceTo(new Vector3());
+        return Math.sqrt(this.x * this.x + this.y * this.y + this.z * this.z);
     }
 
     // Normalizes this vector: changes the length of this vector such that it becomes 1.
@@ -56,11 +100,10 @@ public class Vector3 {
         this.z /= length;
     }
 
-    // Draws a filled circle with a specified radius centered at the (x,y) coordinates of this vector
-    // in the canvas associated with 'cd'. The z-coordinate is not used.
-    public void drawAsFilledCircle(CodeDraw cd, double radius) {
-        double x = cd.getWidth() * (this.x + Simulation.SECTION_SIZE / 2) / Simulation.SECTION_SIZE;
-        double y = cd.getWidth() * (this.y + Simulation.SECTION_SIZE / 2) / Simulation.SECTION_SIZE;
+    // Draws a filled circle with a specified radius centered at the position (x,y) in space.
+    public static void drawAsFilledCircle(CodeDraw cd, double x, double y, double radius) {
+        x = cd.getWidth() * (x + Simulation.SECTION_SIZE / 2) / Simulation.SECTION_SIZE;
+        y = cd.getWidth() * (y + Simulation.SECTION_SIZE / 2) / Simulation.SECTION_SIZE;
         radius = cd.getWidth() * radius / Simulation.SECTION_SIZE;
         cd.fillCircle(x, y, Math.max(radius, 1.5));
     }